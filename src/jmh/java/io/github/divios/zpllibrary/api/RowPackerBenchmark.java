@@ -0,0 +1,126 @@
+package io.github.divios.zpllibrary.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Portable against Vector API packing loops, on a single row and on a whole label. Every benchmark
+ * runs in its own fork as {@link RowPacker} picks its loop once. The vector ones fail unless the
+ * Java 17 layer is on the classpath, which the {@code jmh} profile compiles into the test classes.
+ * <p>
+ * {@code mvn -Pjmh -DskipTests verify}, or {@code -Djmh.include=<regexp>} to run some of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class RowPackerBenchmark {
+
+    private static final String SCALAR = "-Dzpllibrary.vectorize=false";
+    private static final String VECTOR = "-Dzpllibrary.vectorize=true";
+    private static final String VECTOR_MODULE = "--add-modules=jdk.incubator.vector";
+
+    // 4 inches at 203 dpi, 8 inches at 300 dpi
+    @Param({"812", "2400"})
+    private int width;
+
+    private int[] row;
+    private int[] limits;
+    private byte[] packedRow;
+    private BufferedImage label;
+    private byte[] packedLabel;
+    private final ConversionUtils.PackScratch scratch = new ConversionUtils.PackScratch();
+    private final ZplOptions zplOptions = ZplOptions.DEFAULT();
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        boolean vector = params.getBenchmark().endsWith("Vector");
+        if (RowPacker.isVectorized() != vector) {
+            throw new IllegalStateException("Expected the " + (vector ? "vector" : "portable") + " loop");
+        }
+
+        Random random = new Random(42);
+        row = new int[width];
+        limits = new int[width];
+        for (int x = 0; x < width; x++) {
+            int gray = random.nextInt(256);
+            row[x] = 0xFF000000 | (gray * 0x010101);
+            limits[x] = 3 * random.nextInt(256);
+        }
+        packedRow = new byte[(width + 7) / 8];
+
+        // Anti-aliased text, the typical content of a label
+        int height = width * 3 / 2;
+        label = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = label.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, width / 30));
+        for (int y = width / 30; y < height; y += width / 25) {
+            g.drawString("SHIP TO 1234 LOGISTICS WAY, SPRINGFIELD 62704 " + y, 10, y);
+        }
+        g.dispose();
+        packedLabel = new byte[(width + 7) / 8 * height];
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, SCALAR})
+    public byte[] thresholdRowScalar() {
+        RowPacker.pack(row, width, 128, packedRow, 0);
+        return packedRow;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, VECTOR})
+    public byte[] thresholdRowVector() {
+        RowPacker.pack(row, width, 128, packedRow, 0);
+        return packedRow;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, SCALAR})
+    public byte[] orderedRowScalar() {
+        RowPacker.pack(row, width, limits, packedRow, 0);
+        return packedRow;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, VECTOR})
+    public byte[] orderedRowVector() {
+        RowPacker.pack(row, width, limits, packedRow, 0);
+        return packedRow;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, SCALAR})
+    public byte[] labelScalar() {
+        ConversionUtils.packPixels(label, zplOptions, 0, packedLabel, scratch);
+        return packedLabel;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {VECTOR_MODULE, VECTOR})
+    public byte[] labelVector() {
+        ConversionUtils.packPixels(label, zplOptions, 0, packedLabel, scratch);
+        return packedLabel;
+    }
+
+}
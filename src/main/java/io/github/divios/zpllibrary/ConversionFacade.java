@@ -2,9 +2,18 @@ package io.github.divios.zpllibrary;
 
 import io.github.divios.zpllibrary.api.ZPLConversion;
 import io.github.divios.zpllibrary.api.ZplOptions;
-
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Base64;
@@ -21,6 +30,58 @@ public class ConversionFacade {
         // Utility class
     }
 
+    /**
+     * Pays upfront the one-time costs of the first conversion in a fresh JVM: ImageIO plugin
+     * discovery, AWT initialization, PDFBox class loading and its system font scan.
+     * <p>
+     * PDFBox persists the font scan in a {@code .pdfbox.cache} file under the user home, so only
+     * the very first start on a machine pays for it.
+     */
+    public static void warmUp() {
+        warmUp(null);
+    }
+
+    /**
+     * Same as {@link #warmUp()} but persisting the PDFBox font cache in the given directory, which
+     * allows to pre-build it (e.g. while building a container image) and ship it along the
+     * application. It has no effect on the cache location if PDFBox fonts were already loaded.
+     *
+     * @param fontCacheDirectory Directory of the PDFBox font cache file, or null for the default one.
+     */
+    public static void warmUp(Path fontCacheDirectory) {
+        if (fontCacheDirectory != null) {
+            System.setProperty("pdfbox.fontcache", fontCacheDirectory.toAbsolutePath().toString());
+        }
+
+        warmUpBitmap();
+
+        var pdfOptions = ZplOptions.DEFAULT();
+        var pdf = PdfWarmUp.createSamplePdf();
+        ZPLConversion.convertPdf(pdf, pdfOptions);
+        ZPLConversion.convertPdf(pdf, pdfOptions.toBuilder().setPdfRenderingKind(ZplOptions.PdfRenderingKind.HYBRID).build());
+    }
+
+    /**
+     * Same as {@link #warmUp()} but only for images, it never loads PDFBox.
+     */
+    public static void warmUpBitmap() {
+        var sample = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        sample.setRGB(0, 0, 0xFFFFFF);
+
+        for (var format : new String[]{"png", "jpg"}) {
+            var output = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(sample, format, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to warm up " + format + " codec", e);
+            }
+
+            for (var encodingKind : ZplOptions.BitmapEncodingKind.values()) {
+                ZPLConversion.convertBitmap(output.toByteArray(), ZplOptions.builder().setEncodingKind(encodingKind).build());
+            }
+        }
+    }
+
     public static String convertFileToZPL(String path, ZplOptions zplOptions) throws IOException {
         return convertFileToZPL(Path.of(path), zplOptions);
     }
@@ -88,6 +149,34 @@ public class ConversionFacade {
         }
     }
 
+    // Kept apart so that PDFBox classes are only loaded when warming up PDF conversions
+    private static final class PdfWarmUp {
+
+        private static byte[] createSamplePdf() {
+            try (var document = new PDDocument()) {
+                var page = new PDPage(new PDRectangle(72, 72));
+                document.addPage(page);
+
+                try (var contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.addRect(8, 8, 16, 16);
+                    contentStream.fill();
+                    contentStream.beginText();
+                    contentStream.setFont(PDType1Font.HELVETICA, 12);
+                    contentStream.newLineAtOffset(8, 48);
+                    contentStream.showText("ZPL");
+                    contentStream.endText();
+                }
+
+                var output = new ByteArrayOutputStream();
+                document.save(output);
+                return output.toByteArray();
+
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create sample PDF", e);
+            }
+        }
+    }
+
     private static boolean startsWith(byte[] data, byte[] prefix) {
         if (data == null || prefix == null || data.length < prefix.length) {
             return false;
@@ -2,9 +2,10 @@ package io.github.divios.zpllibrary.api;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
-import java.util.List;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.zip.Deflater;
 
 /**
@@ -16,18 +17,18 @@ public class ConversionUtils {
         // Utility class
     }
 
-    private static final Map<Integer, String> CompressionCountMapping = new HashMap<>();
+    static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    // Static lookup table for hexadecimal strings to byte values
-    private static final Map<String, Byte> HEX_LOOKUP_TABLE = new HashMap<>();
+    // Rows of the bands packed in parallel, and size of the images worth it
+    private static final int PACK_BAND_ROWS = 64;
+    private static final int PARALLEL_PACK_PIXELS = 1 << 20;
 
-    // Static initializer block to populate the lookup table
-    static {
-        for (int i = 0; i <= 255; i++) {
-            String hex = String.format("%02X", i); // Format as 2-digit uppercase hexadecimal
-            HEX_LOOKUP_TABLE.put(hex, (byte) i);
-        }
-    }
+    // Gray levels as they are, like readRow
+    private static final int[] GRAY_PALETTE = grayPalette();
+
+    private static final Map<Integer, String> CompressionCountMapping = new HashMap<>();
+    // Same codes indexed by count, looked up without boxing the counts past the Integer cache
+    private static final String[] CompressionCounts = new String[401];
 
     /**
      * Converts a hexadecimal string into a byte array.
@@ -40,28 +41,33 @@ public class ConversionUtils {
             throw new IllegalArgumentException("Input string must be non-null and have an even length.");
         }
 
-        List<Byte> result = new ArrayList<>();
+        byte[] byteArray = new byte[input.length() / 2];
 
         for (int i = 0; i < input.length(); i += 2) {
-            String hexPair = input.substring(i, i + 2);
-            Byte byteValue = HEX_LOOKUP_TABLE.get(hexPair);
+            int high = hexValue(input.charAt(i));
+            int low = hexValue(input.charAt(i + 1));
 
-            if (byteValue == null) {
-                throw new IllegalArgumentException("Invalid hexadecimal string: " + hexPair);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hexadecimal string: " + input.substring(i, i + 2));
             }
 
-            result.add(byteValue);
-        }
-
-        // Convert List<Byte> to byte[]
-        byte[] byteArray = new byte[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            byteArray[i] = result.get(i);
+            byteArray[i / 2] = (byte) ((high << 4) | low);
         }
 
         return byteArray;
     }
 
+    // Uppercase ASCII digits only, the format of the hexadecimal data written by this library
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
     // Convert to Monochrome
     public static BufferedImage toMonochrome(BufferedImage image) {
         BufferedImage monochrome = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
@@ -72,43 +78,292 @@ public class ConversionUtils {
     }
 
     public static String convertBitmapToHex(BufferedImage image, int threshold, int[] binaryByteCount, int[] bytesPerRow) {
-        StringBuilder zplBuilder = new StringBuilder();
+        byte[] bitmapAsBytes = convertBitmapToBytes(image, threshold, bytesPerRow);
+        binaryByteCount[0] = bitmapAsBytes.length;
+
+        return convertBytesToHex(bitmapAsBytes, 0, bytesPerRow[0], image.getHeight());
+    }
 
+    /**
+     * Packs the image into 1-bit rows, most significant bit first, where a set bit is a black pixel.
+     * Each row is padded with zero bits up to a whole byte.
+     *
+     * @param image       The image to pack.
+     * @param threshold   Grayscale value under which a pixel is considered black.
+     * @param bytesPerRow Output parameter receiving the number of bytes of every packed row.
+     * @return The packed rows, one after another.
+     */
+    public static byte[] convertBitmapToBytes(BufferedImage image, int threshold, int[] bytesPerRow) {
         int width = image.getWidth();
         int height = image.getHeight();
 
         // Calculate bytes per row (8 pixels per byte)
         bytesPerRow[0] = (width % 8 > 0) ? (width / 8 + 1) : (width / 8);
-        binaryByteCount[0] = height * bytesPerRow[0];
-
-        int colorBits = 0;
-        int j = 0;
+        byte[] packed = new byte[height * bytesPerRow[0]];
+        int[] row = new int[width];
 
         for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                // Extract RGB components of the pixel
-                int pixel = image.getRGB(x, y);
-                int red = (pixel >> 16) & 0xFF;
-                int green = (pixel >> 8) & 0xFF;
-                int blue = pixel & 0xFF;
-
-                // Calculate grayscale value and determine if the pixel is black
-                boolean blackPixel = ((red + green + blue) / 3) < threshold;
-
-                // Set the corresponding bit if the pixel is black
-                if (blackPixel) {
-                    colorBits |= 1 << (7 - j);
+            image.getRGB(0, y, width, 1, row, 0, width);
+            RowPacker.pack(row, width, threshold, packed, y * bytesPerRow[0]);
+        }
+
+        return packed;
+    }
+
+    /**
+     * Packs the image as every conversion does, with the threshold or dithering set in the options,
+     * into rows of {@code (width + 7) / 8} bytes.
+     */
+    static byte[] packImage(BufferedImage image, ZplOptions zplOptions) {
+        byte[] packed = new byte[((image.getWidth() + 7) / 8) * image.getHeight()];
+        packPixels(image, zplOptions, 0, packed);
+        return packed;
+    }
+
+    static boolean isOrderedDithering(ZplOptions.DitheringKind ditheringKind) {
+        return ditheringKind == ZplOptions.DitheringKind.ORDERED_BAYER_4X4
+                || ditheringKind == ZplOptions.DitheringKind.ORDERED_BAYER_8X8;
+    }
+
+    /**
+     * Packs the image reading its pixels directly: a pixel is black when its grayscale value is under
+     * the threshold or, with ordered dithering, under the Bayer matrix tiled over the image, shifted
+     * by {@code threshold - 128}. Transparent pixels are composited over black, as
+     * {@link #toMonochrome(BufferedImage)} does.
+     * <p>
+     * Each row only depends on its own pixels, so large images are packed by bands in parallel when
+     * {@link ZplOptions#isParallelPacking()} is set.
+     *
+     * @param firstRow Row of the whole label where the image starts, to keep the matrix aligned across bands.
+     */
+    static void packPixels(BufferedImage image, ZplOptions zplOptions, int firstRow, byte[] packed) {
+        packPixels(image, zplOptions, firstRow, packed, new PackScratch());
+    }
+
+    /**
+     * Packs the image as {@link #packPixels(BufferedImage, ZplOptions, int, byte[])}, reading its rows
+     * into the scratch buffers so that sequential calls allocate nothing once they are warm. Only the
+     * bands packed in parallel get buffers of their own.
+     */
+    static void packPixels(BufferedImage image, ZplOptions zplOptions, int firstRow, byte[] packed,
+                           PackScratch scratch) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int threshold = zplOptions.getThreshold();
+        int[][] limits = isOrderedDithering(zplOptions.getDitheringKind())
+                ? scratch.orderedLimits(zplOptions.getDitheringKind(), threshold, width)
+                : null;
+        int[] palette = scratch.palette(image);
+        boolean bytePixels = image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                || image.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+
+        if (!zplOptions.isParallelPacking() || (long) width * height < PARALLEL_PACK_PIXELS) {
+            packRows(image, firstRow, 0, height, threshold, limits, palette, scratch.row(width),
+                    bytePixels ? scratch.samples(4 * width) : null, packed);
+            return;
+        }
+
+        int bands = (height + PACK_BAND_ROWS - 1) / PACK_BAND_ROWS;
+        IntStream.range(0, bands).parallel().forEach(band -> packRows(image, firstRow, band * PACK_BAND_ROWS,
+                Math.min(height, (band + 1) * PACK_BAND_ROWS), threshold, limits, palette, new int[width],
+                bytePixels ? new byte[4 * width] : null, packed));
+    }
+
+    private static void packRows(BufferedImage image, int firstRow, int start, int end, int threshold,
+                                 int[][] limits, int[] palette, int[] row, byte[] samples, byte[] packed) {
+        int width = image.getWidth();
+        int bytesPerRow = (width + 7) / 8;
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+
+        for (int y = start; y < end; y++) {
+            readRow(image, y, row, samples, palette);
+            if (hasAlpha) {
+                compositeOverBlack(row, width);
+            }
+            if (limits == null) {
+                RowPacker.pack(row, width, threshold, packed, y * bytesPerRow);
+            } else {
+                RowPacker.pack(row, width, limits[(firstRow + y) % limits.length], packed, y * bytesPerRow);
+            }
+        }
+    }
+
+    /**
+     * Buffers of {@link #packPixels(BufferedImage, ZplOptions, int, byte[], PackScratch)}, grown to the
+     * widest image seen. Not thread-safe, each {@link ZplConverter} owns one.
+     */
+    static final class PackScratch {
+
+        private int[] row = new int[0];
+        private byte[] samples = new byte[0];
+        private final int[] palette = new int[256];
+        private int[][] limits;
+        private ZplOptions.DitheringKind limitsKind;
+        private int limitsThreshold;
+
+        int[] row(int width) {
+            if (row.length < width) {
+                row = new int[width];
+            }
+            return row;
+        }
+
+        byte[] samples(int length) {
+            if (samples.length < length) {
+                samples = new byte[length];
+            }
+            return samples;
+        }
+
+        // Colour of every sample value of the gray, binary and indexed images, null for the other types
+        int[] palette(BufferedImage image) {
+            switch (image.getType()) {
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    return GRAY_PALETTE;
+                case BufferedImage.TYPE_BYTE_BINARY:
+                case BufferedImage.TYPE_BYTE_INDEXED:
+                    int size = 1 << image.getSampleModel().getSampleSize(0);
+                    for (int i = 0; i < size; i++) {
+                        palette[i] = image.getColorModel().getRGB(i);
+                    }
+                    return palette;
+                default:
+                    return null;
+            }
+        }
+
+        // The limits of a column only depend on its position in the matrix, wider ones serve any narrower image
+        int[][] orderedLimits(ZplOptions.DitheringKind ditheringKind, int threshold, int width) {
+            if (limits == null || limitsKind != ditheringKind || limitsThreshold != threshold
+                    || limits[0].length < width) {
+                limits = ConversionUtils.orderedLimits(ditheringKind, threshold, width);
+                limitsKind = ditheringKind;
+                limitsThreshold = threshold;
+            }
+            return limits;
+        }
+    }
+
+    // Reads a row of pixels as ARGB values, without the colour model calls of getRGB for the common image
+    // types. Gray levels are taken as they are, like Java2D draws them, rather than brightened by the
+    // linear gray colour space getRGB converts them from
+    private static void readRow(BufferedImage image, int y, int[] row, byte[] samples, int[] palette) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                raster.getDataElements(0, y, width, 1, row);
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                raster.getDataElements(0, y, width, 1, samples); // Red, green and blue of each pixel
+                for (int x = 0, i = 0; x < width; x++, i += 3) {
+                    row[x] = 0xFF000000 | ((samples[i] & 0xFF) << 16) | ((samples[i + 1] & 0xFF) << 8)
+                            | (samples[i + 2] & 0xFF);
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                raster.getDataElements(0, y, width, 1, samples); // Red, green, blue and alpha of each pixel
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    row[x] = ((samples[i + 3] & 0xFF) << 24) | ((samples[i] & 0xFF) << 16)
+                            | ((samples[i + 1] & 0xFF) << 8) | (samples[i + 2] & 0xFF);
+                }
+                break;
+            case BufferedImage.TYPE_USHORT_GRAY:
+                raster.getSamples(0, y, width, 1, 0, row);
+                for (int x = 0; x < width; x++) {
+                    row[x] = 0xFF000000 | ((row[x] >> 8) * 0x010101);
                 }
+                break;
+            default:
+                if (palette != null) {
+                    raster.getSamples(0, y, width, 1, 0, row);
+                    for (int x = 0; x < width; x++) {
+                        row[x] = palette[row[x]];
+                    }
+                } else {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                }
+                break;
+        }
+    }
+
+    private static int[] grayPalette() {
+        int[] grays = new int[256];
+        for (int i = 0; i < grays.length; i++) {
+            grays[i] = 0xFF000000 | (i * 0x010101);
+        }
+        return grays;
+    }
+
+    // Limits of the red, green and blue sum of every pixel for each row of the matrix
+    private static int[][] orderedLimits(ZplOptions.DitheringKind ditheringKind, int threshold, int width) {
+        int[][] matrix = bayerMatrix(ditheringKind == ZplOptions.DitheringKind.ORDERED_BAYER_4X4 ? 4 : 8);
+        int size = matrix.length;
+        int[][] limits = new int[size][width];
 
-                j++;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < width; x++) {
+                // Thresholds evenly spread over 0-255 centered on 128, e.g. 8, 24, ..., 248 for 4x4
+                int cell = (2 * matrix[y][x % size] + 1) * 128 / (size * size);
+                limits[y][x] = 3 * Math.max(0, Math.min(threshold - 128 + cell, 256));
+            }
+        }
+
+        return limits;
+    }
 
-                // Add the byte to the output when 8 bits are processed or at the end of a row
-                if (j == 8 || x == (width - 1)) {
-                    zplBuilder.append(String.format("%02X", colorBits)); // Append as hexadecimal
-                    colorBits = 0;
-                    j = 0;
+    private static int[][] bayerMatrix(int size) {
+        int[][] matrix = {{0}};
+        for (int n = 1; n < size; n *= 2) {
+            int[][] next = new int[2 * n][2 * n];
+            for (int y = 0; y < n; y++) {
+                for (int x = 0; x < n; x++) {
+                    int value = 4 * matrix[y][x];
+                    next[y][x] = value;
+                    next[y][x + n] = value + 2;
+                    next[y + n][x] = value + 3;
+                    next[y + n][x + n] = value + 1;
                 }
             }
+            matrix = next;
+        }
+        return matrix;
+    }
+
+    private static void compositeOverBlack(int[] row, int width) {
+        for (int x = 0; x < width; x++) {
+            int pixel = row[x];
+            int alpha = pixel >>> 24;
+            if (alpha != 0xFF) {
+                // Rounded as Java2D blends, so that flattening the image first gives the same result
+                int red = (((pixel >> 16) & 0xFF) * alpha + 127) / 255;
+                int green = (((pixel >> 8) & 0xFF) * alpha + 127) / 255;
+                int blue = ((pixel & 0xFF) * alpha + 127) / 255;
+                row[x] = (red << 16) | (green << 8) | blue;
+            }
+        }
+    }
+
+    /**
+     * Converts packed rows into their hexadecimal representation, one line per row.
+     *
+     * @param data        The packed rows.
+     * @param offset      Index of the first byte of the first row.
+     * @param bytesPerRow Number of bytes of every row.
+     * @param rows        Number of rows to convert.
+     * @return The hexadecimal string, each row terminated by a newline.
+     */
+    public static String convertBytesToHex(byte[] data, int offset, int bytesPerRow, int rows) {
+        StringBuilder zplBuilder = new StringBuilder(rows * (bytesPerRow * 2 + 1));
+
+        for (int y = 0; y < rows; y++) {
+            int rowOffset = offset + y * bytesPerRow;
+            for (int i = 0; i < bytesPerRow; i++) {
+                int value = data[rowOffset + i] & 0xFF;
+                zplBuilder.append(HEX_DIGITS[value >>> 4]).append(HEX_DIGITS[value & 0x0F]);
+            }
             zplBuilder.append('\n'); // Newline for each row (optional, for readability)
         }
 
@@ -135,32 +390,8 @@ public class ConversionUtils {
                     sbLinea.append(',');
                 } else if (counter >= maxlinea && aux == 'F') {
                     sbLinea.append('!');
-                } else if (counter > 20) {
-                    int multi20 = (counter / 20) * 20;
-                    sbLinea.append(CompressionCountMapping.getOrDefault(Math.min(multi20, 400), ""));
-
-                    int restover400 = multi20 / 400;
-                    if (restover400 > 0) {
-                        for (; restover400 > 1; restover400--) {
-                            sbLinea.append(CompressionCountMapping.getOrDefault(400, ""));
-                        }
-
-                        int restto400 = (counter % 400) / 20 * 20;
-
-                        if (restto400 > 0) {
-                            sbLinea.append(CompressionCountMapping.getOrDefault(restto400, ""));
-                        }
-                    }
-
-                    int resto20 = (counter % 20);
-
-                    if (resto20 != 0) {
-                        sbLinea.append(CompressionCountMapping.getOrDefault(resto20, "")).append(aux);
-                    } else {
-                        sbLinea.append(aux);
-                    }
                 } else {
-                    sbLinea.append(CompressionCountMapping.getOrDefault(counter, "")).append(aux);
+                    appendRepeatedChar(sbLinea, counter, aux);
                 }
                 counter = 1;
                 firstChar = true;
@@ -179,39 +410,50 @@ public class ConversionUtils {
             if (aux == item) {
                 counter++;
             } else {
-                if (counter > 20) {
-                    int multi20 = (counter / 20) * 20;
-                    sbLinea.append(CompressionCountMapping.getOrDefault(Math.min(multi20, 400), ""));
+                appendRepeatedChar(sbLinea, counter, aux);
+                counter = 1;
+                aux = item;
+            }
+        }
 
-                    int restover400 = multi20 / 400;
-                    if (restover400 > 0) {
-                        for (; restover400 > 1; restover400--) {
-                            sbLinea.append(CompressionCountMapping.getOrDefault(400, ""));
-                        }
+        return sbCode.toString();
+    }
 
-                        int restto400 = (counter % 400) / 20 * 20;
+    /**
+     * Appends a run of the same hexadecimal character using the ZPL repeat count characters.
+     */
+    private static String compressionCount(int count) {
+        return count > 0 && count < CompressionCounts.length ? CompressionCounts[count] : "";
+    }
 
-                        if (restto400 > 0) {
-                            sbLinea.append(CompressionCountMapping.getOrDefault(restto400, ""));
-                        }
-                    }
+    static void appendRepeatedChar(StringBuilder sbLinea, int counter, char aux) {
+        if (counter > 20) {
+            int multi20 = (counter / 20) * 20;
+            sbLinea.append(compressionCount(Math.min(multi20, 400)));
 
-                    int resto20 = (counter % 20);
+            int restover400 = multi20 / 400;
+            if (restover400 > 0) {
+                for (; restover400 > 1; restover400--) {
+                    sbLinea.append(compressionCount(400));
+                }
 
-                    if (resto20 != 0) {
-                        sbLinea.append(CompressionCountMapping.getOrDefault(resto20, "")).append(aux);
-                    } else {
-                        sbLinea.append(aux);
-                    }
-                } else {
-                    sbLinea.append(CompressionCountMapping.getOrDefault(counter, "")).append(aux);
+                int restto400 = (counter % 400) / 20 * 20;
+
+                if (restto400 > 0) {
+                    sbLinea.append(compressionCount(restto400));
                 }
-                counter = 1;
-                aux = item;
             }
-        }
 
-        return sbCode.toString();
+            int resto20 = (counter % 20);
+
+            if (resto20 != 0) {
+                sbLinea.append(compressionCount(resto20)).append(aux);
+            } else {
+                sbLinea.append(aux);
+            }
+        } else {
+            sbLinea.append(compressionCount(counter)).append(aux);
+        }
     }
 
     /**
@@ -222,26 +464,38 @@ public class ConversionUtils {
      */
     public static int computeBitmapChecksum(String input) {
         byte[] array = input.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        int crc = 0x0000;
+
+        for (byte b : array) {
+            crc = updateBitmapChecksum(crc, b);
+        }
+
+        return crc;
+    }
 
+    /**
+     * Updates a checksum computed by {@link #computeBitmapChecksum(String)} with one more byte.
+     *
+     * @param crc The checksum of the previous bytes, 0 for the first one.
+     * @param b   The next byte.
+     * @return The updated checksum as a 16-bit unsigned integer.
+     */
+    static int updateBitmapChecksum(int crc, int b) {
         // CRC-CCIIT 0xFFFF
         // Polynomial: 1 + x + x^5 + x^12 + x^16 (0x1021)
         final int polynomial = 0x1021;
-        int crc = 0x0000;
 
-        for (byte b : array) {
-            for (int i = 0; i < 8; i++) {
-                boolean bit = ((b >> (7 - i)) & 1) == 1;
-                boolean c15 = ((crc >> 15) & 1) == 1;
-                crc <<= 1;
+        for (int i = 0; i < 8; i++) {
+            boolean bit = ((b >> (7 - i)) & 1) == 1;
+            boolean c15 = ((crc >> 15) & 1) == 1;
+            crc <<= 1;
 
-                if (c15 ^ bit) {
-                    crc ^= polynomial;
-                }
+            if (c15 ^ bit) {
+                crc ^= polynomial;
             }
         }
 
-        crc &= 0xFFFF; // Ensure the result is 16 bits
-        return crc;
+        return crc & 0xFFFF; // Ensure the result is 16 bits
     }
 
     /**
@@ -309,6 +563,9 @@ public class ConversionUtils {
         CompressionCountMapping.put(360, "x");
         CompressionCountMapping.put(380, "y");
         CompressionCountMapping.put(400, "z");
+
+        Arrays.fill(CompressionCounts, "");
+        CompressionCountMapping.forEach((count, code) -> CompressionCounts[count] = code);
     }
 
 }
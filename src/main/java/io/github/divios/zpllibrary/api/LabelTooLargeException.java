@@ -0,0 +1,12 @@
+package io.github.divios.zpllibrary.api;
+
+/**
+ * Thrown when a label exceeds the {@link ZplOptions#getMaxPixels()} of its conversion.
+ */
+public class LabelTooLargeException extends IllegalArgumentException {
+
+    public LabelTooLargeException(long width, long height, long maxPixels) {
+        super(String.format("Label of %dx%d pixels exceeds the limit of %d pixels", width, height, maxPixels));
+    }
+
+}
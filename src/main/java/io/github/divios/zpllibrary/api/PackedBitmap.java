@@ -0,0 +1,363 @@
+package io.github.divios.zpllibrary.api;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.github.divios.zpllibrary.api.ConversionUtils.packPixels;
+
+/**
+ * 1-bit bitmap packed in rows of bytes, most significant bit first, where a set bit is a black pixel.
+ * Each row is padded with zero bits up to a whole byte, the same layout as the {@code ^GF} data.
+ * <p>
+ * The rows live in a {@link ByteBuffer} that can be on the heap, off-heap or mapped to a file, so
+ * labels far larger than the heap can be converted by filling the bitmap band by band with
+ * {@link #fill(BufferedImage, int, int)}. Pixels of different rows can be written concurrently.
+ */
+public final class PackedBitmap {
+
+    private final int width;
+    private final int height;
+    private final int bytesPerRow;
+    private final ByteBuffer buffer;
+
+    private PackedBitmap(int width, int height, ByteBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.bytesPerRow = (width + 7) / 8;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Allocates a white bitmap outside the heap.
+     */
+    public static PackedBitmap allocate(int width, int height) {
+        return new PackedBitmap(width, height, ByteBuffer.allocateDirect(checkedSize(width, height)));
+    }
+
+    /**
+     * Maps a white bitmap to the given file, which is created or truncated, so that only the pages in
+     * use are kept in memory by the operating system.
+     */
+    public static PackedBitmap map(Path file, int width, int height) throws IOException {
+        int size = checkedSize(width, height);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return new PackedBitmap(width, height, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Wraps packed rows already on the heap, without copying them.
+     */
+    public static PackedBitmap wrap(byte[] data, int width, int height) {
+        int size = checkedSize(width, height);
+        if (data.length < size) {
+            throw new IllegalArgumentException(String.format("%d bytes cannot hold a %dx%d bitmap", data.length, width, height));
+        }
+        return new PackedBitmap(width, height, ByteBuffer.wrap(data, 0, size));
+    }
+
+    private static int checkedSize(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException(String.format("Invalid bitmap size %dx%d", width, height));
+        }
+
+        long size = (long) ((width + 7) / 8) * height;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Bitmap of %dx%d exceeds %d bytes", width, height, Integer.MAX_VALUE));
+        }
+        return (int) size;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBytesPerRow() {
+        return bytesPerRow;
+    }
+
+    /**
+     * Copies a row into {@code dst}, which must hold at least {@link #getBytesPerRow()} bytes.
+     */
+    public void getRow(int y, byte[] dst) {
+        int offset = rowOffset(y);
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, dst, 0, bytesPerRow);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.get(dst, 0, bytesPerRow);
+        }
+    }
+
+    /**
+     * Overwrites a row with the first {@link #getBytesPerRow()} bytes of {@code src}.
+     */
+    public void setRow(int y, byte[] src) {
+        int offset = rowOffset(y);
+        if (buffer.hasArray()) {
+            System.arraycopy(src, 0, buffer.array(), buffer.arrayOffset() + offset, bytesPerRow);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.put(src, 0, bytesPerRow);
+        }
+    }
+
+    /**
+     * Copies {@code rows} consecutive rows starting at {@code firstRow} into {@code dst}, one after another.
+     */
+    public void getRows(int firstRow, byte[] dst, int rows) {
+        if (rows == 0) {
+            return;
+        }
+        int offset = rowOffset(firstRow);
+        rowOffset(firstRow + rows - 1);
+
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, dst, 0, rows * bytesPerRow);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.get(dst, 0, rows * bytesPerRow);
+        }
+    }
+
+    /**
+     * Overwrites {@code rows} consecutive rows starting at {@code firstRow} with the packed rows of {@code src}.
+     */
+    public void setRows(int firstRow, byte[] src, int rows) {
+        if (rows == 0) {
+            return;
+        }
+        int offset = rowOffset(firstRow);
+        rowOffset(firstRow + rows - 1);
+
+        if (buffer.hasArray()) {
+            System.arraycopy(src, 0, buffer.array(), buffer.arrayOffset() + offset, rows * bytesPerRow);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.put(src, 0, rows * bytesPerRow);
+        }
+    }
+
+    /**
+     * Returns this bitmap mirrored left to right if {@code mirrored} and then rotated clockwise, as set
+     * by {@link ZplOptions#getOrientation()} and {@link ZplOptions#isMirrored()}. Quarter turns
+     * transpose the packed rows in blocks of 8x8 pixels, so any transform costs about as much as
+     * copying the bitmap. The result is a new bitmap, off-heap if this one is, or this same bitmap if
+     * nothing changes.
+     */
+    public PackedBitmap transform(ZplOptions.Orientation orientation, boolean mirrored) {
+        if (isIdentity(orientation, mirrored)) {
+            return this;
+        }
+
+        boolean quarterTurn = isQuarterTurn(orientation);
+        int targetWidth = quarterTurn ? height : width;
+        int targetHeight = quarterTurn ? width : height;
+        PackedBitmap target = buffer.isDirect()
+                ? allocate(targetWidth, targetHeight)
+                : wrap(new byte[checkedSize(targetWidth, targetHeight)], targetWidth, targetHeight);
+
+        transform(orientation, mirrored, target, new byte[target.bytesPerRow]);
+        return target;
+    }
+
+    static boolean isIdentity(ZplOptions.Orientation orientation, boolean mirrored) {
+        return !mirrored && (orientation == null || orientation == ZplOptions.Orientation.NORMAL);
+    }
+
+    static boolean isQuarterTurn(ZplOptions.Orientation orientation) {
+        return orientation == ZplOptions.Orientation.ROTATED_90 || orientation == ZplOptions.Orientation.ROTATED_270;
+    }
+
+    /**
+     * Writes the transformed bitmap into {@code target}, which must already have the rotated size and
+     * is overwritten completely. {@code row} is scratch space of at least {@code target.getBytesPerRow()} bytes.
+     */
+    void transform(ZplOptions.Orientation orientation, boolean mirrored, PackedBitmap target, byte[] row) {
+        // Every transform is an optional transpose followed by mirroring and/or flipping the rows
+        boolean mirror;
+        boolean flip;
+        switch (orientation == null ? ZplOptions.Orientation.NORMAL : orientation) {
+            case ROTATED_90:
+                mirror = true;
+                flip = mirrored;
+                break;
+            case ROTATED_180:
+                mirror = !mirrored;
+                flip = true;
+                break;
+            case ROTATED_270:
+                mirror = false;
+                flip = !mirrored;
+                break;
+            default:
+                mirror = mirrored;
+                flip = false;
+                break;
+        }
+
+        if (isQuarterTurn(orientation)) {
+            transpose(target, flip);
+            if (mirror) {
+                for (int y = 0; y < target.height; y++) {
+                    target.getRow(y, row);
+                    mirrorRow(row, target.bytesPerRow, target.width);
+                    target.setRow(y, row);
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                getRow(y, row);
+                if (mirror) {
+                    mirrorRow(row, bytesPerRow, width);
+                }
+                target.setRow(flip ? height - 1 - y : y, row);
+            }
+        }
+    }
+
+    // Column x of this bitmap becomes row x of the target, or row width - 1 - x if flipped
+    private void transpose(PackedBitmap target, boolean flip) {
+        ByteBuffer targetBuffer = target.buffer;
+        int targetBytesPerRow = target.bytesPerRow;
+
+        for (int blockRow = 0; blockRow < height; blockRow += 8) {
+            int rows = Math.min(8, height - blockRow);
+            int targetColumn = blockRow >> 3;
+
+            for (int column = 0; column < bytesPerRow; column++) {
+                // Row i of the block in byte 7 - i, the padding rows past the bottom are white
+                long block = 0;
+                for (int i = 0; i < 8; i++) {
+                    block <<= 8;
+                    if (i < rows) {
+                        block |= buffer.get((blockRow + i) * bytesPerRow + column) & 0xFF;
+                    }
+                }
+                if (block != 0) {
+                    block = transpose8x8(block);
+                }
+
+                int columns = Math.min(8, width - column * 8);
+                for (int i = 0; i < columns; i++) {
+                    int y = column * 8 + i;
+                    targetBuffer.put((flip ? width - 1 - y : y) * targetBytesPerRow + targetColumn,
+                            (byte) (block >>> (56 - 8 * i)));
+                }
+            }
+        }
+    }
+
+    // Transposes the 8x8 bit matrix with row i in byte 7 - i, most significant bit first
+    private static long transpose8x8(long block) {
+        long t = (block ^ (block >>> 7)) & 0x00AA00AA00AA00AAL;
+        block = block ^ t ^ (t << 7);
+        t = (block ^ (block >>> 14)) & 0x0000CCCC0000CCCCL;
+        block = block ^ t ^ (t << 14);
+        t = (block ^ (block >>> 28)) & 0x00000000F0F0F0F0L;
+        return block ^ t ^ (t << 28);
+    }
+
+    private static void mirrorRow(byte[] row, int bytesPerRow, int width) {
+        for (int i = 0, j = bytesPerRow - 1; i <= j; i++, j--) {
+            byte left = row[i];
+            row[i] = reverseBits(row[j]);
+            row[j] = reverseBits(left);
+        }
+
+        // The padding bits are now at the start of the row, shift them back to the end
+        int padding = bytesPerRow * 8 - width;
+        if (padding > 0) {
+            for (int i = 0; i < bytesPerRow; i++) {
+                int next = i + 1 < bytesPerRow ? row[i + 1] & 0xFF : 0;
+                row[i] = (byte) (((row[i] & 0xFF) << padding) | (next >>> (8 - padding)));
+            }
+        }
+    }
+
+    private static byte reverseBits(byte value) {
+        return (byte) (Integer.reverse(value) >>> 24);
+    }
+
+    /**
+     * Tells whether both bitmaps hold the same packed rows. The padding bits of the last byte of each
+     * row are compared too, so a bitmap matches the one decoded from its graphic field by
+     * {@link ZplDecoder}, which is as wide as the whole bytes of its rows.
+     */
+    public boolean contentEquals(PackedBitmap other) {
+        if (other == null || other.bytesPerRow != bytesPerRow || other.height != height) {
+            return false;
+        }
+        return rows().equals(other.rows());
+    }
+
+    private ByteBuffer rows() {
+        ByteBuffer view = buffer.duplicate();
+        view.clear().limit(bytesPerRow * height);
+        return view;
+    }
+
+    boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    public boolean isBlack(int x, int y) {
+        checkColumn(x);
+        return (buffer.get(rowOffset(y) + (x >> 3)) & (0x80 >>> (x & 7))) != 0;
+    }
+
+    private int rowOffset(int y) {
+        if (y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("Row " + y + " out of bounds for height " + height);
+        }
+        return y * bytesPerRow;
+    }
+
+    private void checkColumn(int x) {
+        if (x < 0 || x >= width) {
+            throw new IndexOutOfBoundsException("Column " + x + " out of bounds for width " + width);
+        }
+    }
+
+    /**
+     * Packs a horizontal band of the label into the rows starting at {@code firstRow}, exactly as
+     * {@link ZPLConversion#convertBitmap(BufferedImage, ZplOptions)} packs those rows.
+     *
+     * @param band      The band, as wide as the bitmap.
+     * @param firstRow  Row of the bitmap where the band starts.
+     * @param threshold Grayscale value under which a pixel is considered black.
+     */
+    public void fill(BufferedImage band, int firstRow, int threshold) {
+        fill(band, firstRow, ZplOptions.builder().setThreshold(threshold).build());
+    }
+
+    /**
+     * Packs a horizontal band of the label as {@link #fill(BufferedImage, int, int)}, with the
+     * threshold and dithering set in the options. Ordered dithering stays aligned across bands
+     * starting at any row.
+     */
+    public void fill(BufferedImage band, int firstRow, ZplOptions zplOptions) {
+        if (band.getWidth() != width || firstRow < 0 || firstRow + band.getHeight() > height) {
+            throw new IllegalArgumentException(String.format("Band of %dx%d at row %d does not fit a %dx%d bitmap",
+                    band.getWidth(), band.getHeight(), firstRow, width, height));
+        }
+
+        byte[] packed = new byte[bytesPerRow * band.getHeight()];
+        packPixels(band, zplOptions, firstRow, packed);
+        setRows(firstRow, packed, band.getHeight());
+    }
+
+}
@@ -0,0 +1,138 @@
+package io.github.divios.zpllibrary.api;
+
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Renderer of the bands of a PDF page too large to be rendered at once. PDFBox replays the whole
+ * content stream for every band, this renderer skips the glyphs and images falling outside the
+ * surface being drawn so that only the parsing is repeated, not the rasterization.
+ */
+final class PdfBandRenderer extends PDFRenderer {
+
+    private PdfBandRenderer(PDDocument document) {
+        super(document);
+    }
+
+    /**
+     * Renders the first page of the document band by band into an off-heap {@link PackedBitmap}.
+     */
+    static PackedBitmap renderFirstPage(PDDocument document, ZplOptions zplOptions) throws IOException {
+        float scale = zplOptions.getTargetDpi() / 72f;
+        Dimension size = pageSize(document.getPage(0), scale);
+        int width = size.width;
+        int height = size.height;
+        ZPLConversion.checkLabelSize(width, height, zplOptions.getMaxPixels());
+
+        PackedBitmap bitmap = PackedBitmap.allocate(width, height);
+        PdfBandRenderer renderer = new PdfBandRenderer(document);
+        int bandHeight = ZPLConversion.bandHeight(width);
+        BufferedImage band = new BufferedImage(width, Math.min(bandHeight, height), BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y += bandHeight) {
+            Graphics2D g = band.createGraphics();
+            g.setBackground(Color.WHITE);
+            g.clearRect(0, 0, band.getWidth(), band.getHeight());
+            g.translate(0, -y);
+            renderer.renderPageToGraphics(0, g, scale);
+            g.dispose();
+
+            int rows = Math.min(bandHeight, height - y);
+            bitmap.fill(rows == band.getHeight() ? band : band.getSubimage(0, 0, width, rows), y, zplOptions);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Size of the page rendered at the given scale, same as the images of {@link PDFRenderer#renderImage(int, float)}.
+     */
+    static Dimension pageSize(PDPage page, float scale) {
+        PDRectangle cropBox = page.getCropBox();
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+
+        return page.getRotation() == 90 || page.getRotation() == 270
+                ? new Dimension(height, width)
+                : new Dimension(width, height);
+    }
+
+    @Override
+    protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+        return new BandPageDrawer(parameters);
+    }
+
+    private static final class BandPageDrawer extends PageDrawer {
+
+        // Slack around the font bounding box in glyph space, substituted fonts may draw past it
+        private static final double GLYPH_MARGIN = 1000;
+        // Slack in device pixels for antialiasing and image interpolation
+        private static final double DEVICE_MARGIN = 2;
+
+        private static final Rectangle2D UNIT_SQUARE = new Rectangle2D.Double(0, 0, 1, 1);
+
+        private BandPageDrawer(PageDrawerParameters parameters) throws IOException {
+            super(parameters);
+        }
+
+        @Override
+        protected void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code, Vector displacement)
+                throws IOException {
+            // Clipping modes must keep every glyph, an empty text clip would clip nothing
+            if (getGraphicsState().getTextState().getRenderingMode() == RenderingMode.FILL) {
+                BoundingBox box = font.getBoundingBox();
+                if (box.getWidth() > 0 && box.getHeight() > 0) {
+                    AffineTransform transform = textRenderingMatrix.createAffineTransform();
+                    transform.concatenate(font.getFontMatrix().createAffineTransform());
+                    Rectangle2D glyph = new Rectangle2D.Double(box.getLowerLeftX() - GLYPH_MARGIN,
+                            box.getLowerLeftY() - GLYPH_MARGIN, box.getWidth() + 2 * GLYPH_MARGIN,
+                            box.getHeight() + 2 * GLYPH_MARGIN);
+
+                    if (isOutsideSurface(transform, glyph)) {
+                        return;
+                    }
+                }
+            }
+
+            super.showFontGlyph(textRenderingMatrix, font, code, displacement);
+        }
+
+        @Override
+        public void drawImage(PDImage pdImage) throws IOException {
+            AffineTransform transform = getGraphicsState().getCurrentTransformationMatrix().createAffineTransform();
+            if (isOutsideSurface(transform, UNIT_SQUARE)) {
+                return;
+            }
+
+            super.drawImage(pdImage);
+        }
+
+        // The surface is the band, or the offscreen image of a transparency group or pattern being drawn
+        private boolean isOutsideSurface(AffineTransform userTransform, Rectangle2D bounds) {
+            AffineTransform transform = getGraphics().getTransform();
+            transform.concatenate(userTransform);
+
+            Rectangle2D device = transform.createTransformedShape(bounds).getBounds2D();
+            Rectangle2D surface = getGraphics().getDeviceConfiguration().getBounds();
+            return device.getMaxX() + DEVICE_MARGIN < surface.getMinX() || device.getMinX() - DEVICE_MARGIN > surface.getMaxX()
+                    || device.getMaxY() + DEVICE_MARGIN < surface.getMinY() || device.getMinY() - DEVICE_MARGIN > surface.getMaxY();
+        }
+    }
+
+}
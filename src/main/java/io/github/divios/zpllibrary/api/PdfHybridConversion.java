@@ -0,0 +1,515 @@
+package io.github.divios.zpllibrary.api;
+
+import org.apache.fontbox.afm.AFMParser;
+import org.apache.fontbox.afm.FontMetrics;
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColor;
+import org.apache.pdfbox.pdmodel.graphics.color.PDPattern;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+import java.awt.BasicStroke;
+import java.awt.Dimension;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static io.github.divios.zpllibrary.api.ConversionUtils.*;
+
+/**
+ * Converts a PDF page emitting text and barcodes as native ZPL fields instead of rasterizing them.
+ * <p>
+ * The page is rendered with a {@link PageDrawer} that intercepts every text showing operator. Runs
+ * drawn with one of the standard 14 fonts become {@code ^A0} text fields and runs drawn with a
+ * Code 128 barcode font become {@code ^BC} fields, as long as they are upright, filled with a dark
+ * color and can be represented. Any run that cannot is drawn as usual, so it ends up in the graphic
+ * field holding the rest of the page, cropped to its inked area.
+ * <p>
+ * Native fields print above the graphic field, so a run is only emitted when the clipping path shows
+ * all of it and nothing is painted over it later in the page. Runs painted over are found while
+ * rendering, the page is then rendered a second time drawing them.
+ */
+final class PdfHybridConversion {
+
+    private static final Pattern CODE_128_FONT = Pattern.compile("(?i).*(code|barcode|c)[-_ ]?128.*");
+
+    // Code 128 symbol values
+    private static final int CODE_C = 99;
+    private static final int CODE_B = 100;
+    private static final int CODE_A = 101;
+    private static final int FNC_1 = 102;
+    private static final int START_A = 103;
+    private static final int START_B = 104;
+    private static final int START_C = 105;
+    private static final int STOP = 106;
+
+    // Advance of the font 0 (CG Triumvirate Bold Condensed) glyphs relative to Helvetica Bold ones
+    private static final float FONT_0_CONDENSATION = 0.82f;
+
+    private PdfHybridConversion() {
+        // Utility class
+    }
+
+    static String convert(InputStream pdfStream, ZplOptions zplOptions) {
+        try (PDDocument document = ZPLConversion.loadPdf(pdfStream)) {
+            Dimension size = PdfBandRenderer.pageSize(document.getPage(0), zplOptions.getTargetDpi() / 72f);
+            ZPLConversion.checkLabelSize(size.width, size.height, zplOptions.getMaxPixels());
+
+            HybridRenderer renderer = new HybridRenderer(document, zplOptions, new BitSet());
+            BufferedImage image = renderer.renderImageWithDPI(0, zplOptions.getTargetDpi());
+
+            if (!renderer.coveredRuns.isEmpty()) {
+                renderer = new HybridRenderer(document, zplOptions, renderer.coveredRuns);
+                image = renderer.renderImageWithDPI(0, zplOptions.getTargetDpi());
+            }
+
+            StringBuilder zplBuilder = new StringBuilder("^XA");
+            if (!renderer.nativeFields.isEmpty()) {
+                zplBuilder.append("^CI28");
+            }
+
+            appendCroppedGraphicField(zplBuilder, image, zplOptions);
+            renderer.nativeFields.forEach(zplBuilder::append);
+
+            return zplBuilder.append("^XZ").toString();
+
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to process PDF stream", e);
+        }
+    }
+
+    private static void appendCroppedGraphicField(StringBuilder zplBuilder, BufferedImage image, ZplOptions zplOptions) {
+        byte[] bitmap = packImage(image, zplOptions);
+        int width = (image.getWidth() + 7) / 8;
+        int height = image.getHeight();
+
+        int firstRow = height;
+        int lastRow = -1;
+        int firstColumn = width;
+        int lastColumn = -1;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (bitmap[y * width + x] != 0) {
+                    firstRow = Math.min(firstRow, y);
+                    lastRow = y;
+                    firstColumn = Math.min(firstColumn, x);
+                    lastColumn = Math.max(lastColumn, x);
+                }
+            }
+        }
+
+        if (lastRow < 0) {
+            return; // Nothing left to rasterize
+        }
+
+        int columns = lastColumn - firstColumn + 1;
+        int rows = lastRow - firstRow + 1;
+        byte[] cropped = new byte[rows * columns];
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(bitmap, (firstRow + y) * width + firstColumn, cropped, y * columns, columns);
+        }
+
+        zplBuilder.append("^FO").append(firstColumn * 8).append(',').append(firstRow);
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            converter.appendGraphicField(zplBuilder, PackedBitmap.wrap(cropped, columns * 8, rows));
+        }
+        zplBuilder.append("^FS");
+    }
+
+    /**
+     * Decodes a run of Code 128 font characters (start, data, check and stop symbols) into the
+     * {@code ^FD} data of a {@code ^BC} field in mode N, keeping the code sets of the original symbol.
+     *
+     * @return The field data or null if the run is not a valid symbol that ZPL can reproduce.
+     */
+    static String decodeCode128(CharSequence run) {
+        int[] values = new int[run.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = code128Value(run.charAt(i));
+        }
+
+        if (values.length < 3 || values[values.length - 1] != STOP || values[0] < START_A || values[0] > START_C) {
+            return null;
+        }
+
+        int checksum = values[0];
+        for (int i = 1; i < values.length - 2; i++) {
+            if (values[i] < 0 || values[i] >= START_A) {
+                return null;
+            }
+            checksum += i * values[i];
+        }
+        if (checksum % 103 != values[values.length - 2]) {
+            return null;
+        }
+
+        StringBuilder data = new StringBuilder();
+        int codeSet = values[0];
+        data.append(codeSet == START_A ? ">9" : codeSet == START_B ? ">:" : ">;");
+
+        for (int i = 1; i < values.length - 2; i++) {
+            int value = values[i];
+            if (value == FNC_1) {
+                data.append(">8");
+            } else if (codeSet == START_C) {
+                if (value < 100) {
+                    data.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+                } else if (value == CODE_B) {
+                    data.append(">6");
+                    codeSet = START_B;
+                } else {
+                    data.append(">7");
+                    codeSet = START_A;
+                }
+            } else if (value == CODE_C) {
+                data.append(">5");
+                codeSet = START_C;
+            } else if (codeSet == START_B && value == CODE_A) {
+                data.append(">7");
+                codeSet = START_A;
+            } else if (codeSet == START_A && value == CODE_B) {
+                data.append(">6");
+                codeSet = START_B;
+            } else if (value < 64 || (codeSet == START_B && value < 95)) {
+                char c = (char) (value + 32);
+                data.append(c == '>' ? ">0" : String.valueOf(c));
+            } else {
+                return null; // Control characters, shifts and function codes other than FNC1
+            }
+        }
+
+        return data.toString();
+    }
+
+    private static int code128Value(char c) {
+        if (c >= 32 && c <= 126) {
+            return c - 32;
+        } else if (c == 194) {
+            return 0;
+        } else if (c >= 195 && c <= 206) {
+            return c - 100;
+        }
+        return -1;
+    }
+
+    /**
+     * Width of the {@code ^A0} field whose text spans the given dots, estimated from the Helvetica Bold
+     * metrics as the printer font has no metrics available here.
+     */
+    private static int font0Width(String text, float runWidth) {
+        FontMetrics metrics = HelveticaBold.METRICS;
+        GlyphList glyphList = GlyphList.getAdobeGlyphList();
+
+        float textWidth = 0;
+        for (int i = 0; i < text.length(); i = text.offsetByCodePoints(i, 1)) {
+            float width = metrics.getCharacterWidth(glyphList.codePointToName(text.codePointAt(i)));
+            textWidth += width > 0 ? width : metrics.getAverageCharacterWidth();
+        }
+
+        return Math.max(1, Math.round(runWidth * 1000 / (textWidth * FONT_0_CONDENSATION)));
+    }
+
+    private static String escapeFieldData(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            int value = b & 0xFF;
+            if (value >= 32 && value < 127 && value != '^' && value != '~' && value != '_') {
+                escaped.append((char) value);
+            } else {
+                escaped.append(String.format("_%02X", value));
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static final class HybridRenderer extends PDFRenderer {
+
+        private final ZplOptions zplOptions;
+        // Runs to draw instead of emitting them, by their order in the page
+        private final BitSet rasterizedRuns;
+        private final List<String> nativeFields = new ArrayList<>();
+        // Emitted runs that something painted over afterwards
+        private final BitSet coveredRuns = new BitSet();
+
+        private HybridRenderer(PDDocument document, ZplOptions zplOptions, BitSet rasterizedRuns) {
+            super(document);
+            this.zplOptions = zplOptions;
+            this.rasterizedRuns = rasterizedRuns;
+        }
+
+        @Override
+        protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+            return new HybridPageDrawer(parameters, this);
+        }
+    }
+
+    private static final class HybridPageDrawer extends PageDrawer {
+
+        private final HybridRenderer renderer;
+        private final PDRectangle cropBox;
+        private final float scale;
+        private final boolean rotated;
+
+        private List<Glyph> run;
+        // Runs that may become native fields, counted in the same order in every rendering of the page
+        private int runCount;
+        private final List<NativeRun> nativeRuns = new ArrayList<>();
+
+        private HybridPageDrawer(PageDrawerParameters parameters, HybridRenderer renderer) throws IOException {
+            super(parameters);
+            this.renderer = renderer;
+            this.cropBox = parameters.getPage().getCropBox();
+            this.scale = renderer.zplOptions.getTargetDpi() / 72f;
+            this.rotated = parameters.getPage().getRotation() % 360 != 0;
+        }
+
+        @Override
+        protected void showText(byte[] string) throws IOException {
+            PDGraphicsState state = getGraphicsState();
+            PDFont font = state.getTextState().getFont();
+
+            if (run != null || rotated || font == null
+                    || !(isStandardTextFont(font) || isCode128Font(font))
+                    || state.getTextState().getRenderingMode() != RenderingMode.FILL
+                    || !isDark(state.getNonStrokingColor())) {
+                super.showText(string);
+                return;
+            }
+
+            int index = runCount++;
+            run = new ArrayList<>();
+            try {
+                super.showText(string);
+                if (run.isEmpty()) {
+                    return;
+                }
+
+                Rectangle2D bounds = runBounds(font, run);
+                if (!renderer.rasterizedRuns.get(index) && state.getCurrentClippingPath().contains(bounds)
+                        && emitNativeField(font, run, bounds)) {
+                    nativeRuns.add(new NativeRun(index, bounds));
+                } else {
+                    // Not representable, draw it like any other text
+                    for (Glyph glyph : run) {
+                        super.showFontGlyph(glyph.matrix, font, glyph.code, glyph.displacement);
+                    }
+                }
+            } finally {
+                run = null;
+            }
+        }
+
+        @Override
+        protected void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code, Vector displacement)
+                throws IOException {
+            if (run == null) {
+                // Dark text prints the same over a native field as under it, only light text hides it
+                RenderingMode renderingMode = getGraphicsState().getTextState().getRenderingMode();
+                if (renderingMode.isFill() && !isDark(getGraphicsState().getNonStrokingColor())
+                        || renderingMode.isStroke() && !isDark(getGraphicsState().getStrokingColor())) {
+                    coverRuns(glyphBounds(textRenderingMatrix, font, displacement));
+                }
+                super.showFontGlyph(textRenderingMatrix, font, code, displacement);
+                return;
+            }
+            run.add(new Glyph(textRenderingMatrix.clone(), code, font.toUnicode(code), displacement));
+        }
+
+        @Override
+        public void fillPath(int windingRule) throws IOException {
+            coverRuns(getLinePath());
+            super.fillPath(windingRule);
+        }
+
+        @Override
+        public void strokePath() throws IOException {
+            Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+            float lineWidth = getGraphicsState().getLineWidth()
+                    * Math.max(Math.abs(ctm.getScalingFactorX()), Math.abs(ctm.getScalingFactorY()));
+            // Hairlines are a dot wide
+            coverRuns(new BasicStroke(Math.max(lineWidth, 1 / scale)).createStrokedShape(getLinePath()));
+            super.strokePath();
+        }
+
+        @Override
+        public void drawImage(PDImage pdImage) throws IOException {
+            coverRuns(getGraphicsState().getCurrentTransformationMatrix().createAffineTransform()
+                    .createTransformedShape(new Rectangle2D.Float(0, 0, 1, 1)));
+            super.drawImage(pdImage);
+        }
+
+        @Override
+        public void shadingFill(COSName shadingName) throws IOException {
+            coverRuns(getGraphicsState().getCurrentClippingPath());
+            super.shadingFill(shadingName);
+        }
+
+        // Marks the native runs the shape, in page space, paints over
+        private void coverRuns(Shape shape) {
+            for (NativeRun nativeRun : nativeRuns) {
+                if (!renderer.coveredRuns.get(nativeRun.index) && shape.intersects(nativeRun.bounds)) {
+                    renderer.coveredRuns.set(nativeRun.index);
+                }
+            }
+        }
+
+        // Bounds of the run in page space, from the advance of its glyphs and the height of the font
+        private static Rectangle2D runBounds(PDFont font, List<Glyph> glyphs) throws IOException {
+            Rectangle2D bounds = glyphBounds(glyphs.get(0).matrix, font, glyphs.get(0).displacement);
+            for (Glyph glyph : glyphs) {
+                bounds.add(glyphBounds(glyph.matrix, font, glyph.displacement));
+            }
+            return bounds;
+        }
+
+        private static Rectangle2D glyphBounds(Matrix textRenderingMatrix, PDFont font, Vector displacement)
+                throws IOException {
+            BoundingBox box = font.getBoundingBox();
+            float unitsToText = font.getFontMatrix().getScaleY();
+            float bottom = box.getHeight() > 0 ? box.getLowerLeftY() * unitsToText : -0.25f;
+            float top = box.getHeight() > 0 ? box.getUpperRightY() * unitsToText : 1;
+
+            return textRenderingMatrix.createAffineTransform()
+                    .createTransformedShape(new Rectangle2D.Float(0, bottom, displacement.getX(), top - bottom))
+                    .getBounds2D();
+        }
+
+        private boolean emitNativeField(PDFont font, List<Glyph> glyphs, Rectangle2D bounds) throws IOException {
+            StringBuilder text = new StringBuilder();
+            for (Glyph glyph : glyphs) {
+                Matrix m = glyph.matrix;
+                if (glyph.unicode == null || m.getShearX() != 0 || m.getShearY() != 0
+                        || m.getScaleX() <= 0 || m.getScaleY() <= 0) {
+                    return false;
+                }
+                text.append(glyph.unicode);
+            }
+
+            Matrix first = glyphs.get(0).matrix;
+            float fontSize = first.getScaleY() * scale;
+            float runWidth = (float) bounds.getWidth() * scale;
+            int x = Math.round((first.getTranslateX() - cropBox.getLowerLeftX()) * scale);
+            int baseline = Math.round((cropBox.getUpperRightY() - first.getTranslateY()) * scale);
+
+            if (isStandardTextFont(font)) {
+                String data = text.toString();
+                if (data.isBlank()) {
+                    return true; // Nothing to print
+                }
+
+                int height = Math.max(1, Math.round(fontSize));
+                renderer.nativeFields.add(String.format("^FT%d,%d^A0N,%d,%d^FH^FD%s^FS",
+                        x, baseline, height, font0Width(data, runWidth), escapeFieldData(data)));
+                return true;
+            }
+
+            String data = decodeCode128(text);
+            if (data == null) {
+                return false;
+            }
+
+            // Every symbol has 11 modules, the stop symbol 13
+            int modules = 11 * (glyphs.size() - 1) + 13;
+            int moduleWidth = Math.max(1, Math.round(runWidth / modules));
+
+            BoundingBox box = font.getBoundingBox();
+            float unitsToDots = font.getFontMatrix().getScaleY() * fontSize;
+            int barHeight = Math.max(1, Math.round((box.getUpperRightY() - Math.min(0, box.getLowerLeftY())) * unitsToDots));
+            int bottom = Math.round(baseline - Math.min(0, box.getLowerLeftY()) * unitsToDots);
+
+            renderer.nativeFields.add(String.format("^FT%d,%d^BY%d^BCN,%d,N,N,N^FH^FD%s^FS",
+                    x, bottom, moduleWidth, barHeight, escapeFieldData(data)));
+            return true;
+        }
+
+        // Patterns and colours that cannot be reduced to RGB are left to the rasterizer
+        private boolean isDark(PDColor color) {
+            if (color.getColorSpace() instanceof PDPattern) {
+                return false;
+            }
+
+            int rgb;
+            try {
+                rgb = color.toRGB();
+            } catch (IOException | UnsupportedOperationException e) {
+                return false;
+            }
+
+            int red = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue = rgb & 0xFF;
+            return ((red + green + blue) / 3) < renderer.zplOptions.getThreshold();
+        }
+
+        private static boolean isStandardTextFont(PDFont font) {
+            return font instanceof PDSimpleFont && ((PDSimpleFont) font).isStandard14()
+                    && !font.getName().contains("Symbol") && !font.getName().contains("ZapfDingbats");
+        }
+
+        private static boolean isCode128Font(PDFont font) {
+            return font.getName() != null && CODE_128_FONT.matcher(font.getName()).matches();
+        }
+    }
+
+    private static final class NativeRun {
+
+        private final int index;
+        private final Rectangle2D bounds;
+
+        private NativeRun(int index, Rectangle2D bounds) {
+            this.index = index;
+            this.bounds = bounds;
+        }
+    }
+
+    // Loaded with the first native text field
+    private static final class HelveticaBold {
+
+        private static final FontMetrics METRICS = load();
+
+        private static FontMetrics load() {
+            try (InputStream in = PDFont.class.getResourceAsStream("/org/apache/pdfbox/resources/afm/Helvetica-Bold.afm")) {
+                return new AFMParser(in).parse(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load the Helvetica Bold metrics", e);
+            }
+        }
+    }
+
+    private static final class Glyph {
+
+        private final Matrix matrix;
+        private final int code;
+        private final String unicode;
+        private final Vector displacement;
+
+        private Glyph(Matrix matrix, int code, String unicode, Vector displacement) {
+            this.matrix = matrix;
+            this.code = code;
+            this.unicode = unicode;
+            this.displacement = displacement;
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+package io.github.divios.zpllibrary.api;
+
+import org.w3c.dom.Element;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG image band by band in a single pass over its {@code IDAT} data, which the source
+ * regions of the JDK reader cannot do as every band decodes again the rows above it.
+ * <p>
+ * The bands are images of the type the JDK reader would produce, so they pack exactly like a
+ * {@link javax.imageio.ImageIO#read} of the whole image. Interlaced images and images whose samples
+ * the JDK reader converts, like a {@code tRNS} colour expanded into an alpha band, are left to it.
+ */
+final class PngBandReader {
+
+    private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+    // Signature and IHDR chunk
+    private static final long CHUNKS_START = 33;
+
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private final ImageInputStream stream;
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int channels;
+    private final ImageTypeSpecifier imageType;
+
+    // Bytes left in the current IDAT chunk, -1 once they are all read
+    private int chunkRemaining;
+    private boolean idatStarted;
+
+    private PngBandReader(ImageInputStream stream, int width, int height, int bitDepth, int channels,
+                          ImageTypeSpecifier imageType) {
+        this.stream = stream;
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.channels = channels;
+        this.imageType = imageType;
+    }
+
+    /**
+     * Decodes the image into the bitmap if it is a PNG this class supports.
+     *
+     * @param reader     The reader chosen for the stream, with its input already set.
+     * @param stream     The input of the reader.
+     * @param bitmap     The bitmap to fill, as large as the image.
+     * @param bandHeight The rows of each band.
+     * @param zplOptions The options used to pack the bands.
+     * @return Whether the image was decoded, otherwise it is left to the reader.
+     */
+    static boolean read(ImageReader reader, ImageInputStream stream, PackedBitmap bitmap, int bandHeight,
+                        ZplOptions zplOptions) throws IOException {
+        if (!"png".equalsIgnoreCase(reader.getFormatName())) {
+            return false;
+        }
+
+        // Same type as reader.read(0) without a destination
+        ImageTypeSpecifier imageType = reader.getImageTypes(0).next();
+
+        Element header = (Element) ((Element) reader.getImageMetadata(0).getAsTree(PNG_METADATA_FORMAT))
+                .getElementsByTagName("IHDR").item(0);
+        int bitDepth = Integer.parseInt(header.getAttribute("bitDepth"));
+        int channels = channels(header.getAttribute("colorType"));
+
+        if (!"none".equals(header.getAttribute("interlaceMethod")) || channels == 0
+                || imageType.getSampleModel().getNumBands() != channels) {
+            return false;
+        }
+
+        // The reader drops the chunks it has parsed, the data is looked for after them
+        stream.seek(Math.max(stream.getFlushedPosition(), CHUNKS_START));
+        if (!isChunkStart(stream)) {
+            return false;
+        }
+
+        new PngBandReader(stream, reader.getWidth(0), reader.getHeight(0), bitDepth, channels, imageType)
+                .decode(bitmap, bandHeight, zplOptions);
+        return true;
+    }
+
+    // Chunk types are four ASCII letters
+    private static boolean isChunkStart(ImageInputStream stream) throws IOException {
+        stream.mark();
+        try {
+            stream.skipBytes(4); // Length
+            for (int i = 0; i < 4; i++) {
+                int c = stream.read();
+                if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z')) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            stream.reset();
+        }
+    }
+
+    private static int channels(String colorType) {
+        switch (colorType) {
+            case "Grayscale":
+            case "Palette":
+                return 1;
+            case "GrayAlpha":
+                return 2;
+            case "RGB":
+                return 3;
+            case "RGBAlpha":
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private void decode(PackedBitmap bitmap, int bandHeight, ZplOptions zplOptions) throws IOException {
+        int bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+        int bytesPerRow = (int) (((long) width * channels * bitDepth + 7) / 8);
+        byte[] row = new byte[bytesPerRow];
+        byte[] previousRow = new byte[bytesPerRow];
+        int[] samples = new int[width * channels];
+
+        BufferedImage band = imageType.createBufferedImage(width, Math.min(bandHeight, height));
+        WritableRaster raster = band.getRaster();
+
+        Inflater inflater = new Inflater();
+        try (DataInputStream data = new DataInputStream(new InflaterInputStream(new IdatInputStream(), inflater, 1 << 16))) {
+            for (int y = 0; y < height; y += bandHeight) {
+                int rows = Math.min(bandHeight, height - y);
+                for (int r = 0; r < rows; r++) {
+                    int filter = data.readUnsignedByte();
+                    data.readFully(row);
+                    unfilter(filter, row, previousRow, bytesPerPixel);
+                    toSamples(row, samples);
+                    raster.setPixels(0, r, width, 1, samples);
+
+                    byte[] swap = previousRow;
+                    previousRow = row;
+                    row = swap;
+                }
+
+                bitmap.fill(rows == band.getHeight() ? band : band.getSubimage(0, 0, width, rows), y, zplOptions);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void unfilter(int filter, byte[] row, byte[] previousRow, int bytesPerPixel) throws IOException {
+        switch (filter) {
+            case 0: // None
+                break;
+            case 1: // Sub
+                for (int i = bytesPerPixel; i < row.length; i++) {
+                    row[i] += row[i - bytesPerPixel];
+                }
+                break;
+            case 2: // Up
+                for (int i = 0; i < row.length; i++) {
+                    row[i] += previousRow[i];
+                }
+                break;
+            case 3: // Average
+                for (int i = 0; i < row.length; i++) {
+                    int left = i < bytesPerPixel ? 0 : row[i - bytesPerPixel] & 0xFF;
+                    row[i] += (byte) ((left + (previousRow[i] & 0xFF)) >> 1);
+                }
+                break;
+            case 4: // Paeth
+                for (int i = 0; i < row.length; i++) {
+                    int left = i < bytesPerPixel ? 0 : row[i - bytesPerPixel] & 0xFF;
+                    int up = previousRow[i] & 0xFF;
+                    int upLeft = i < bytesPerPixel ? 0 : previousRow[i - bytesPerPixel] & 0xFF;
+                    row[i] += (byte) paeth(left, up, upLeft);
+                }
+                break;
+            default:
+                throw new IOException("Unknown PNG filter type: " + filter);
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private void toSamples(byte[] row, int[] samples) {
+        switch (bitDepth) {
+            case 8:
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = row[i] & 0xFF;
+                }
+                break;
+            case 16:
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = ((row[2 * i] & 0xFF) << 8) | (row[2 * i + 1] & 0xFF);
+                }
+                break;
+            default: // 1, 2 or 4 bits, most significant first
+                int mask = (1 << bitDepth) - 1;
+                for (int i = 0; i < samples.length; i++) {
+                    int bit = i * bitDepth;
+                    samples[i] = (row[bit >> 3] >> (8 - bitDepth - (bit & 7))) & mask;
+                }
+                break;
+        }
+    }
+
+    // Data of the consecutive IDAT chunks, dropping the cached bytes of the stream as it goes
+    private final class IdatInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (chunkRemaining == 0) {
+                nextChunk();
+            }
+            if (chunkRemaining < 0) {
+                return -1;
+            }
+
+            int read = stream.read(b, off, Math.min(len, chunkRemaining));
+            if (read < 0) {
+                throw new IOException("Truncated PNG image data");
+            }
+            chunkRemaining -= read;
+            if (chunkRemaining == 0) {
+                stream.skipBytes(4); // CRC
+            }
+            return read;
+        }
+
+        private void nextChunk() throws IOException {
+            while (true) {
+                int length = stream.readInt();
+                int type = stream.readInt();
+                if (type == IDAT) {
+                    idatStarted = true;
+                    stream.flushBefore(stream.getStreamPosition());
+                    if (length > 0) {
+                        chunkRemaining = length;
+                        return;
+                    }
+                    stream.skipBytes(4); // CRC of an empty chunk
+                } else if (idatStarted || type == IEND) {
+                    // The IDAT chunks are consecutive, the image data ends with them
+                    chunkRemaining = -1;
+                    return;
+                } else {
+                    stream.skipBytes(length + 4L); // Ancillary chunk and CRC
+                }
+            }
+        }
+    }
+
+}
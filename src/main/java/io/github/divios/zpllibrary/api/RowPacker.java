@@ -0,0 +1,31 @@
+package io.github.divios.zpllibrary.api;
+
+/**
+ * Entry point of the row packing loop. This is the portable version, the multi-release jar
+ * replaces it on newer runtimes with one that can use the Vector API.
+ */
+final class RowPacker {
+
+    private RowPacker() {
+        // Utility class
+    }
+
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Packs a whole row, see {@link ScalarRowPacker#pack(int[], int, int, int, byte[], int)}.
+     */
+    static void pack(int[] argb, int width, int threshold, byte[] packed, int offset) {
+        ScalarRowPacker.pack(argb, 0, width, threshold, packed, offset);
+    }
+
+    /**
+     * Packs a whole row with a limit per pixel, see {@link ScalarRowPacker#pack(int[], int, int, int[], byte[], int)}.
+     */
+    static void pack(int[] argb, int width, int[] limits, byte[] packed, int offset) {
+        ScalarRowPacker.pack(argb, 0, width, limits, packed, offset);
+    }
+
+}
@@ -0,0 +1,67 @@
+package io.github.divios.zpllibrary.api;
+
+/**
+ * Portable implementation of the grayscale, threshold and bit packing loop of a row of pixels.
+ */
+final class ScalarRowPacker {
+
+    private ScalarRowPacker() {
+        // Utility class
+    }
+
+    /**
+     * Packs the pixels of a row from {@code from}, a multiple of 8, to {@code width}, setting the
+     * bit of every pixel whose grayscale value is under the threshold.
+     *
+     * @param argb      The row, as returned by {@link java.awt.image.BufferedImage#getRGB}.
+     * @param from      First pixel to pack, a multiple of 8.
+     * @param width     Number of pixels of the row.
+     * @param threshold Grayscale value under which a pixel is considered black.
+     * @param packed    Destination of the packed row.
+     * @param offset    Index of the first byte of the row in {@code packed}.
+     */
+    static void pack(int[] argb, int from, int width, int threshold, byte[] packed, int offset) {
+        for (int x = from; x < width; x += 8) {
+            int bits = 0;
+            int end = Math.min(8, width - x);
+
+            for (int i = 0; i < end; i++) {
+                int pixel = argb[x + i];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+
+                if (((red + green + blue) / 3) < threshold) {
+                    bits |= 0x80 >>> i;
+                }
+            }
+
+            packed[offset + (x >> 3)] = (byte) bits;
+        }
+    }
+
+    /**
+     * Packs the pixels of a row from {@code from}, a multiple of 8, to {@code width}, setting the
+     * bit of every pixel whose red, green and blue sum is under its own limit.
+     *
+     * @param limits Limit of the sum of every pixel of the row, 3 times its grayscale threshold.
+     */
+    static void pack(int[] argb, int from, int width, int[] limits, byte[] packed, int offset) {
+        for (int x = from; x < width; x += 8) {
+            int bits = 0;
+            int end = Math.min(8, width - x);
+
+            for (int i = 0; i < end; i++) {
+                int pixel = argb[x + i];
+                int sum = ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+
+                if (sum < limits[x + i]) {
+                    bits |= 0x80 >>> i;
+                }
+            }
+
+            packed[offset + (x >> 3)] = (byte) bits;
+        }
+    }
+
+}
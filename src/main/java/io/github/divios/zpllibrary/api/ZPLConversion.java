@@ -1,9 +1,13 @@
 package io.github.divios.zpllibrary.api;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
@@ -13,11 +17,15 @@ import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Base64;
-
-import static io.github.divios.zpllibrary.api.ConversionUtils.*;
+import java.util.Iterator;
 
 public class ZPLConversion {
 
+    // Pixels decoded or rendered at once by the large label conversions, 16MB as RGB
+    private static final int BAND_PIXELS = 1 << 22;
+    // Bytes of a PDF kept on the heap while it is parsed, the rest is buffered in a temporary file
+    private static final long PDF_MEMORY_BYTES = 16L << 20;
+
     private ZPLConversion() {
         // Utility class
     }
@@ -52,13 +60,26 @@ public class ZPLConversion {
             zplOptions = ZplOptions.DEFAULT();
         }
 
+        // Native fields cannot follow the rotation of the graphic, rotated labels are fully rasterized
+        if (zplOptions.getPdfRenderingKind() == ZplOptions.PdfRenderingKind.HYBRID
+                && PackedBitmap.isIdentity(zplOptions.getOrientation(), zplOptions.isMirrored())) {
+            return PdfHybridConversion.convert(pdfStream, zplOptions);
+        }
+
         // Placeholder for PDF to images conversion
-        BufferedImage image = convertPdfToImages(pdfStream, zplOptions.getTargetDpi());
+        BufferedImage image = convertPdfToImages(pdfStream, zplOptions.getTargetDpi(), zplOptions.getMaxPixels());
         return convertBitmap(image, zplOptions);
     }
 
     public static BufferedImage convertPdfToImages(InputStream pdfStream, long dpi) {
-        try (PDDocument document = PDDocument.load(pdfStream)) {
+        return convertPdfToImages(pdfStream, dpi, Long.MAX_VALUE);
+    }
+
+    private static BufferedImage convertPdfToImages(InputStream pdfStream, long dpi, long maxPixels) {
+        try (PDDocument document = loadPdf(pdfStream)) {
+            Dimension size = PdfBandRenderer.pageSize(document.getPage(0), dpi / 72f);
+            checkLabelSize(size.width, size.height, maxPixels);
+
             // Create a PDFRenderer
             PDFRenderer renderer = new PDFRenderer(document);
 
@@ -69,6 +90,57 @@ public class ZPLConversion {
         }
     }
 
+    /**
+     * Loads a PDF keeping at most {@link #PDF_MEMORY_BYTES} of it on the heap, so that large uploads
+     * are buffered in a temporary file.
+     */
+    static PDDocument loadPdf(InputStream pdfStream) throws IOException {
+        return PDDocument.load(pdfStream, MemoryUsageSetting.setupMixed(PDF_MEMORY_BYTES));
+    }
+
+    /**
+     * Rejects the labels larger than the given number of pixels with a {@link LabelTooLargeException}.
+     */
+    static void checkLabelSize(long width, long height, long maxPixels) {
+        if (width * height > maxPixels) {
+            throw new LabelTooLargeException(width, height, maxPixels);
+        }
+    }
+
+    /**
+     * Converts the first page of a PDF too large to be rendered at once, see
+     * {@link #renderPdfToPackedBitmap(InputStream, ZplOptions)}, writing the ZPL code to {@code out}
+     * as it is encoded.
+     */
+    public static void convertLargePdf(InputStream pdfStream, ZplOptions zplOptions, Appendable out) throws IOException {
+        PackedBitmap bitmap = renderPdfToPackedBitmap(pdfStream, zplOptions);
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            converter.convert(bitmap, out);
+        }
+    }
+
+    /**
+     * Renders the first page of a PDF band by band into an off-heap {@link PackedBitmap}, so that
+     * only one band of pixels is on the heap at any time. The content stream of the page is parsed
+     * again for every band, but only the glyphs and images overlapping a band are rasterized into it.
+     */
+    public static PackedBitmap renderPdfToPackedBitmap(InputStream pdfStream, ZplOptions zplOptions) {
+        if (pdfStream == null) {
+            throw new IllegalArgumentException("pdfStream cannot be null");
+        }
+
+        if (zplOptions == null) {
+            zplOptions = ZplOptions.DEFAULT();
+        }
+
+        // The renderer stays in PdfBandRenderer so that linking this class does not load PDFBox
+        try (PDDocument document = loadPdf(pdfStream)) {
+            return PdfBandRenderer.renderFirstPage(document, zplOptions);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to process PDF stream", e);
+        }
+    }
+
     public static String convertBitmap(String bitmapPath, ZplOptions zplOptions) {
         try {
             BufferedImage bitmap = ImageIO.read(new File(bitmapPath));
@@ -101,65 +173,86 @@ public class ZPLConversion {
         }
     }
 
-    public static String convertBitmap(BufferedImage bitmap, ZplOptions zplOptions) {
-        if (bitmap == null) {
-            throw new IllegalArgumentException("bitmap cannot be null");
+    /**
+     * Converts an image too large to be decoded at once, see {@link #readPackedBitmap(InputStream, ZplOptions)},
+     * writing the ZPL code to {@code out} as it is encoded.
+     */
+    public static void convertLargeBitmap(InputStream bitmapAsStream, ZplOptions zplOptions, Appendable out) throws IOException {
+        PackedBitmap bitmap = readPackedBitmap(bitmapAsStream, zplOptions);
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            converter.convert(bitmap, out);
         }
-
-        return convertBitmapImpl(bitmap, zplOptions);
     }
 
-    private static String convertBitmapImpl(BufferedImage bitmap, ZplOptions zplOptions) {
+    /**
+     * Decodes an image band by band into an off-heap {@link PackedBitmap}, so that only one band of
+     * pixels is on the heap at any time. PNG images are decoded in a single pass, other formats and
+     * interlaced PNG images band by band with source regions, which for sequential formats like JPEG
+     * means decoding again the rows above each band.
+     */
+    public static PackedBitmap readPackedBitmap(InputStream bitmapAsStream, ZplOptions zplOptions) {
+        if (bitmapAsStream == null) {
+            throw new IllegalArgumentException("bitmapAsStream cannot be null");
+        }
+
         if (zplOptions == null) {
-            zplOptions = new ZplOptions();
+            zplOptions = ZplOptions.DEFAULT();
         }
 
-        try {
+        try (bitmapAsStream; ImageInputStream imageStream = ImageIO.createImageInputStream(bitmapAsStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported image format");
+            }
 
-            //bitmap = resizeImage(bitmap, zplOptions.getOriginalDpi(), zplOptions.getTargetDpi());
-
-            int[] binaryByteCount = new int[1];
-            int[] bytesPerRow = new int[1];
-
-            // Placeholder for bitmap processing
-            bitmap = toMonochrome(bitmap);
-            String bitmapAsHex = convertBitmapToHex(bitmap, zplOptions.getThreshold(), binaryByteCount, bytesPerRow);
-            String bitmapPayload;
-
-            switch (zplOptions.getEncodingKind()) {
-                case HEXADECIMAL:
-                    bitmapPayload = bitmapAsHex;
-                    break;
-                case HEXADECIMAL_COMPRESSED:
-                    bitmapPayload = compressHex(bitmapAsHex, bitmap.getWidth() / 8);
-                    break;
-                case BASE64:
-                case BASE64_COMPRESSED:
-                    bitmapPayload = bitmapAsHex.replace("\n", "");
-                    String encodingId = "B64";
-                    byte[] bitmapAsBytes = hexToByteArray(bitmapPayload);
-
-                    if (zplOptions.getEncodingKind() == ZplOptions.BitmapEncodingKind.BASE64_COMPRESSED) {
-                        encodingId = "Z64";
-                        bitmapAsBytes = deflate(bitmapAsBytes);
-                    }
-
-                    String base64 = Base64.getEncoder().encodeToString(bitmapAsBytes);
-                    int csc = computeBitmapChecksum(base64);
-
-                    bitmapPayload = String.format(":%s:%s:%04X", encodingId, base64, csc);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unknown encoding kind: " + zplOptions.getEncodingKind());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                checkLabelSize(width, height, zplOptions.getMaxPixels());
+
+                PackedBitmap bitmap = PackedBitmap.allocate(width, height);
+                int bandHeight = bandHeight(width);
+                if (PngBandReader.read(reader, imageStream, bitmap, bandHeight, zplOptions)) {
+                    return bitmap;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int y = 0; y < height; y += bandHeight) {
+                    param.setSourceRegion(new Rectangle(0, y, width, Math.min(bandHeight, height - y)));
+                    bitmap.fill(reader.read(0, param), y, zplOptions);
+                }
+
+                return bitmap;
+
+            } finally {
+                reader.dispose();
             }
 
-            String graphicField = String.format("^GFA,%d,%d,%d,%s",
-                    binaryByteCount[0], binaryByteCount[0], bytesPerRow[0], bitmapPayload);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read bitmap stream", e);
+        }
+    }
+
+    // Rows of a band holding about BAND_PIXELS pixels, a multiple of 8
+    static int bandHeight(int width) {
+        return Math.max(8, BAND_PIXELS / Math.max(width, 1) / 8 * 8);
+    }
+
+    public static String convertBitmap(BufferedImage bitmap, ZplOptions zplOptions) {
+        if (bitmap == null) {
+            throw new IllegalArgumentException("bitmap cannot be null");
+        }
+
+        return convertBitmapImpl(bitmap, zplOptions);
+    }
 
-            return String.format("^XA%s^FS^XZ", graphicField);
+    private static String convertBitmapImpl(BufferedImage bitmap, ZplOptions zplOptions) {
+        //bitmap = resizeImage(bitmap, zplOptions.getOriginalDpi(), zplOptions.getTargetDpi());
 
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to convert bitmap to ZPL", e);
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            return converter.convert(bitmap);
         }
     }
 
@@ -0,0 +1,399 @@
+package io.github.divios.zpllibrary.api;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+
+import static io.github.divios.zpllibrary.api.ConversionUtils.*;
+
+/**
+ * Reusable converter of bitmaps to ZPL for a fixed set of options.
+ * <p>
+ * Unlike the static methods of {@link ZPLConversion}, a converter keeps its scratch buffers (the
+ * pixel rows, the packed bitmap, the compression output and the {@link Deflater}) between
+ * conversions, growing them to the largest label seen, so that once warm it only allocates the
+ * returned ZPL code. {@link PackedBitmap}s are encoded row by row and can be streamed to an
+ * {@link Appendable}. It is not thread-safe: confine each instance to a thread or share them
+ * through a {@link ZplConverterPool}.
+ */
+public final class ZplConverter implements AutoCloseable {
+
+    // Size past which the ZPL code built so far is handed over to the destination
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final ZplOptions zplOptions;
+
+    private final StringBuilder zplBuilder = new StringBuilder();
+    private final StringBuilder previousRow = new StringBuilder();
+    private final byte[] compressed = new byte[8192];
+    private byte[] bitmap = new byte[0];
+    private byte[] transformed = new byte[0];
+    private byte[] row = new byte[0];
+    private final PackScratch packScratch = new PackScratch();
+    private PackedBitmap packedView;
+    private PackedBitmap transformedView;
+    private Deflater deflater;
+    private int base64Pending;
+    private int base64PendingLength;
+    private int crc;
+
+    public ZplConverter(ZplOptions zplOptions) {
+        this.zplOptions = zplOptions == null ? ZplOptions.DEFAULT() : zplOptions;
+    }
+
+    public ZplOptions getZplOptions() {
+        return zplOptions;
+    }
+
+    /**
+     * Converts the bitmap into a label holding a single graphic field, same as
+     * {@link ZPLConversion#convertBitmap(BufferedImage, ZplOptions)}.
+     *
+     * @param image The bitmap to convert.
+     * @return The ZPL code.
+     */
+    public String convert(BufferedImage image) {
+        try {
+            return encode(pack(image), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Nothing is written outside the builder
+        }
+    }
+
+    /**
+     * Converts the bitmap as {@link #convert(BufferedImage)}, writing the ZPL code to {@code out} as
+     * it is encoded instead of building it in memory.
+     *
+     * @param image The bitmap to convert.
+     * @param out   Destination of the ZPL code.
+     */
+    public void convert(BufferedImage image, Appendable out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out cannot be null");
+        }
+        encode(pack(image), out);
+    }
+
+    /**
+     * Converts an already packed bitmap into a label holding a single graphic field, mirrored and
+     * rotated as set in the options.
+     *
+     * @param bitmap The bitmap to convert.
+     * @return The ZPL code.
+     */
+    public String convert(PackedBitmap bitmap) {
+        try {
+            return encode(bitmap, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Nothing is written outside the builder
+        }
+    }
+
+    /**
+     * Converts an already packed bitmap, writing the ZPL code to {@code out} as it is encoded, row
+     * by row, so that neither the bitmap nor the ZPL code of very large labels have to fit the heap.
+     *
+     * @param bitmap The bitmap to convert.
+     * @param out    Destination of the ZPL code.
+     */
+    public void convert(PackedBitmap bitmap, Appendable out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out cannot be null");
+        }
+        encode(bitmap, out);
+    }
+
+    private String encode(PackedBitmap bitmap, Appendable sink) throws IOException {
+        if (bitmap == null) {
+            throw new IllegalArgumentException("bitmap cannot be null");
+        }
+
+        try {
+            zplBuilder.setLength(0);
+            zplBuilder.append("^XA");
+            appendGraphicField(zplBuilder, orient(bitmap), sink);
+            zplBuilder.append("^FS^XZ");
+
+            if (sink == null) {
+                return zplBuilder.toString();
+            }
+
+            sink.append(zplBuilder);
+            zplBuilder.setLength(0);
+            return null;
+
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to convert bitmap to ZPL", e);
+        }
+    }
+
+    // Same result as packImage(image, zplOptions) into the reused buffers
+    private PackedBitmap pack(BufferedImage image) {
+        if (image == null) {
+            throw new IllegalArgumentException("bitmap cannot be null");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bytesPerRow = (width + 7) / 8;
+
+        if (bitmap.length < bytesPerRow * height) {
+            bitmap = new byte[bytesPerRow * height];
+            packedView = null;
+        }
+
+        packPixels(image, zplOptions, 0, bitmap, packScratch);
+        packedView = view(packedView, bitmap, width, height);
+        return packedView;
+    }
+
+    // Wraps the buffer, reusing the last view while the label size and the buffer stay the same
+    private static PackedBitmap view(PackedBitmap last, byte[] data, int width, int height) {
+        if (last != null && last.getWidth() == width && last.getHeight() == height) {
+            return last;
+        }
+        return PackedBitmap.wrap(data, width, height);
+    }
+
+    /**
+     * Mirrors and rotates the bitmap as set in the options, into a reused buffer unless it is off-heap.
+     */
+    PackedBitmap orient(PackedBitmap bitmap) {
+        ZplOptions.Orientation orientation = zplOptions.getOrientation();
+        boolean mirrored = zplOptions.isMirrored();
+        if (PackedBitmap.isIdentity(orientation, mirrored)) {
+            return bitmap;
+        }
+        if (bitmap.isDirect()) {
+            return bitmap.transform(orientation, mirrored);
+        }
+
+        boolean quarterTurn = PackedBitmap.isQuarterTurn(orientation);
+        int width = quarterTurn ? bitmap.getHeight() : bitmap.getWidth();
+        int height = quarterTurn ? bitmap.getWidth() : bitmap.getHeight();
+        int size = ((width + 7) / 8) * height;
+        if (transformed.length < size) {
+            transformed = new byte[size];
+            transformedView = null;
+        }
+        if (row.length < (width + 7) / 8) {
+            row = new byte[(width + 7) / 8];
+        }
+
+        transformedView = view(transformedView, transformed, width, height);
+        bitmap.transform(orientation, mirrored, transformedView, row);
+        return transformedView;
+    }
+
+    /**
+     * Appends a {@code ^GFA} command holding the bitmap as is, encoded as set in the options.
+     */
+    void appendGraphicField(StringBuilder out, PackedBitmap bitmap) {
+        try {
+            appendGraphicField(out, bitmap, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Nothing is written outside the builder
+        }
+    }
+
+    // Encodes row by row, handing the builder over to the sink whenever it grows past FLUSH_SIZE
+    private void appendGraphicField(StringBuilder out, PackedBitmap bitmap, Appendable sink) throws IOException {
+        int bytesPerRow = bitmap.getBytesPerRow();
+        int rows = bitmap.getHeight();
+        int binaryByteCount = bytesPerRow * rows;
+        ZplOptions.BitmapEncodingKind encodingKind = zplOptions.getEncodingKind();
+
+        out.append("^GFA,").append(binaryByteCount).append(',').append(binaryByteCount).append(',')
+                .append(bytesPerRow).append(',');
+
+        if (row.length < bytesPerRow) {
+            row = new byte[bytesPerRow];
+        }
+        previousRow.setLength(0);
+        base64Pending = 0;
+        base64PendingLength = 0;
+        crc = 0;
+
+        switch (encodingKind) {
+            case HEXADECIMAL:
+            case HEXADECIMAL_COMPRESSED:
+                break;
+            case BASE64:
+                out.append(":B64:");
+                break;
+            case BASE64_COMPRESSED:
+                out.append(":Z64:");
+                startDeflate();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown encoding kind: " + encodingKind);
+        }
+
+        for (int y = 0; y < rows; y++) {
+            bitmap.getRow(y, row);
+
+            switch (encodingKind) {
+                case HEXADECIMAL:
+                    appendHexRow(out, row, bytesPerRow);
+                    break;
+                case HEXADECIMAL_COMPRESSED:
+                    appendCompressedHexRow(out, row, bytesPerRow, bitmap.getWidth() / 8, y == 0);
+                    break;
+                case BASE64:
+                    appendBase64(out, row, bytesPerRow);
+                    break;
+                default:
+                    deflate(out, row, bytesPerRow);
+                    break;
+            }
+
+            if (sink != null && out.length() >= FLUSH_SIZE) {
+                sink.append(out);
+                out.setLength(0);
+            }
+        }
+
+        if (encodingKind == ZplOptions.BitmapEncodingKind.BASE64_COMPRESSED) {
+            finishDeflate(out);
+        }
+        if (encodingKind == ZplOptions.BitmapEncodingKind.BASE64
+                || encodingKind == ZplOptions.BitmapEncodingKind.BASE64_COMPRESSED) {
+            finishBase64(out);
+        }
+    }
+
+    private static void appendHexRow(StringBuilder out, byte[] data, int bytesPerRow) {
+        for (int i = 0; i < bytesPerRow; i++) {
+            out.append(HEX_DIGITS[(data[i] >>> 4) & 0x0F]).append(HEX_DIGITS[data[i] & 0x0F]);
+        }
+        out.append('\n');
+    }
+
+    // Same output as compressHex over the hexadecimal rows, without building them
+    private void appendCompressedHexRow(StringBuilder out, byte[] data, int bytesPerRow, int widthBytes,
+                                        boolean firstRow) {
+        int maxLineLength = widthBytes * 2;
+        int digits = bytesPerRow * 2;
+        int rowStart = out.length();
+
+        char runChar = hexDigit(data, 0);
+        int runLength = 0;
+        for (int i = 0; i < digits; i++) {
+            char c = hexDigit(data, i);
+            if (c == runChar) {
+                runLength++;
+            } else {
+                appendRepeatedChar(out, runLength, runChar);
+                runChar = c;
+                runLength = 1;
+            }
+        }
+
+        if (runLength >= maxLineLength && runChar == '0') {
+            out.append(',');
+        } else if (runLength >= maxLineLength && runChar == 'F') {
+            out.append('!');
+        } else {
+            appendRepeatedChar(out, runLength, runChar);
+        }
+
+        if (!firstRow && isSameRow(out, rowStart)) {
+            out.setLength(rowStart);
+            out.append(':');
+        } else {
+            previousRow.setLength(0);
+            previousRow.append(out, rowStart, out.length());
+        }
+    }
+
+    private boolean isSameRow(StringBuilder out, int rowStart) {
+        if (out.length() - rowStart != previousRow.length()) {
+            return false;
+        }
+        for (int i = 0; i < previousRow.length(); i++) {
+            if (out.charAt(rowStart + i) != previousRow.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char hexDigit(byte[] data, int digit) {
+        int value = data[digit >> 1];
+        return HEX_DIGITS[(digit & 1) == 0 ? (value >>> 4) & 0x0F : value & 0x0F];
+    }
+
+    // Base64 is encoded in groups of 3 bytes, the ones left over from the last call wait in base64Pending
+    private void appendBase64(StringBuilder out, byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            base64Pending = (base64Pending << 8) | (data[i] & 0xFF);
+            if (++base64PendingLength == 3) {
+                appendBase64Group(out, 3);
+                base64Pending = 0;
+                base64PendingLength = 0;
+            }
+        }
+    }
+
+    private void finishBase64(StringBuilder out) {
+        if (base64PendingLength > 0) {
+            base64Pending <<= 8 * (3 - base64PendingLength);
+            appendBase64Group(out, base64PendingLength);
+        }
+
+        out.append(':');
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            out.append(HEX_DIGITS[(crc >>> shift) & 0x0F]);
+        }
+    }
+
+    private void appendBase64Group(StringBuilder out, int length) {
+        for (int j = 0; j < 4; j++) {
+            char c = j <= length ? BASE64_DIGITS[(base64Pending >>> (18 - 6 * j)) & 0x3F] : '=';
+            out.append(c);
+            crc = updateBitmapChecksum(crc, c);
+        }
+    }
+
+    private void startDeflate() {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        } else {
+            deflater.reset();
+        }
+    }
+
+    private void deflate(StringBuilder out, byte[] data, int length) {
+        deflater.setInput(data, 0, length);
+        while (!deflater.needsInput()) {
+            int compressedLength = deflater.deflate(compressed);
+            appendBase64(out, compressed, compressedLength);
+        }
+    }
+
+    private void finishDeflate(StringBuilder out) {
+        deflater.finish();
+        while (!deflater.finished()) {
+            int compressedLength = deflater.deflate(compressed);
+            appendBase64(out, compressed, compressedLength);
+        }
+    }
+
+    /**
+     * Releases the native resources of the {@link Deflater}.
+     */
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package io.github.divios.zpllibrary.api;
+
+import java.awt.image.BufferedImage;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe pool of {@link ZplConverter}s sharing the same options.
+ * <p>
+ * Converters are created on demand, so borrowing never blocks, and up to {@code maxIdle} of them
+ * are kept with their scratch buffers once released. The most recently released converter is
+ * handed out first, as its buffers are the most likely to still be in the CPU caches. The pool is
+ * meant for concurrent conversions, so its converters never pack in parallel, whatever
+ * {@link ZplOptions#isParallelPacking()} says.
+ */
+public final class ZplConverterPool implements AutoCloseable {
+
+    private final ZplOptions zplOptions;
+    private final int maxIdle;
+    private final Deque<ZplConverter> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ZplConverterPool(ZplOptions zplOptions) {
+        this(zplOptions, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ZplConverterPool(ZplOptions zplOptions, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle cannot be negative: " + maxIdle);
+        }
+
+        this.zplOptions = zplOptions == null
+                ? ZplOptions.DEFAULT()
+                : zplOptions.toBuilder().setParallelPacking(false).build();
+        this.maxIdle = maxIdle;
+    }
+
+    public ZplOptions getZplOptions() {
+        return zplOptions;
+    }
+
+    /**
+     * Converts the bitmap with a pooled converter.
+     *
+     * @param bitmap The bitmap to convert.
+     * @return The ZPL code.
+     */
+    public String convert(BufferedImage bitmap) {
+        ZplConverter converter = borrow();
+        try {
+            return converter.convert(bitmap);
+        } finally {
+            release(converter);
+        }
+    }
+
+    /**
+     * Takes a converter out of the pool, creating one if none is idle. It must be given back with
+     * {@link #release(ZplConverter)} once done, and not used afterwards.
+     *
+     * @return A converter confined to the caller until released.
+     */
+    public ZplConverter borrow() {
+        if (closed) {
+            throw new IllegalStateException("Converter pool is closed");
+        }
+
+        ZplConverter converter = idle.pollFirst();
+        if (converter == null) {
+            return new ZplConverter(zplOptions);
+        }
+
+        idleCount.decrementAndGet();
+        return converter;
+    }
+
+    /**
+     * Gives back a converter taken with {@link #borrow()}.
+     *
+     * @param converter The converter to give back.
+     */
+    public void release(ZplConverter converter) {
+        if (converter == null) {
+            return;
+        }
+
+        if (!closed) {
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offerFirst(converter);
+                if (closed) {
+                    close(); // Raced with close(), do not leave it behind
+                }
+                return;
+            }
+            idleCount.decrementAndGet();
+        }
+
+        converter.close();
+    }
+
+    /**
+     * Closes every idle converter. Converters still borrowed are closed when released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        ZplConverter converter;
+        while ((converter = idle.pollFirst()) != null) {
+            converter.close();
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package io.github.divios.zpllibrary.api;
+
+import java.awt.image.BufferedImage;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static io.github.divios.zpllibrary.api.ConversionUtils.packImage;
+
+/**
+ * Decoder of the {@code ^GFA} graphic fields produced by this library, to verify labels before they
+ * are sent to the printer.
+ * <p>
+ * It understands plain hexadecimal data, the ACS run-length codes ({@code G}-{@code Y},
+ * {@code g}-{@code z}, {@code ,}, {@code !} and {@code :}) and the {@code :B64:} and {@code :Z64:}
+ * payloads, whose checksum is validated. Malformed fields are rejected with an
+ * {@link IllegalArgumentException} rather than decoded the lenient way printers do.
+ */
+public final class ZplDecoder {
+
+    // CRC-CCITT (polynomial 0x1021) of every byte, same checksum as ConversionUtils.computeBitmapChecksum
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            CRC_TABLE[i] = ConversionUtils.updateBitmapChecksum(0, i);
+        }
+    }
+
+    private ZplDecoder() {
+        // Utility class
+    }
+
+    /**
+     * Decodes the first graphic field of the ZPL code. As the field does not keep the width of the
+     * bitmap, the result is as wide as its rows, a multiple of 8.
+     *
+     * @param zpl The ZPL code holding a {@code ^GFA} command.
+     * @return The decoded bitmap.
+     */
+    public static PackedBitmap decodeGraphicField(String zpl) {
+        if (zpl == null) {
+            throw new IllegalArgumentException("zpl cannot be null");
+        }
+
+        int start = zpl.indexOf("^GF");
+        if (start < 0) {
+            throw new IllegalArgumentException("No graphic field found");
+        }
+        if (start + 3 >= zpl.length() || zpl.charAt(start + 3) != 'A') {
+            throw new IllegalArgumentException("Only ASCII graphic fields (^GFA) can be decoded");
+        }
+
+        // ^GFA,binaryByteCount,graphicFieldCount,bytesPerRow,data
+        int[] position = {start + 4};
+        int binaryByteCount = readParameter(zpl, position);
+        readParameter(zpl, position);
+        int bytesPerRow = readParameter(zpl, position);
+
+        if (bytesPerRow <= 0 || binaryByteCount % bytesPerRow != 0) {
+            throw new IllegalArgumentException(String.format("Invalid graphic field size: %d bytes in rows of %d",
+                    binaryByteCount, bytesPerRow));
+        }
+
+        int dataStart = position[0] + 1;
+        if (dataStart > zpl.length() || zpl.charAt(dataStart - 1) != ',') {
+            throw new IllegalArgumentException("Malformed graphic field header at index " + position[0]);
+        }
+
+        int dataEnd = dataStart;
+        while (dataEnd < zpl.length() && zpl.charAt(dataEnd) != '^' && zpl.charAt(dataEnd) != '~') {
+            dataEnd++;
+        }
+
+        byte[] data = new byte[binaryByteCount];
+        if (zpl.startsWith(":B64:", dataStart) || zpl.startsWith(":Z64:", dataStart)) {
+            decodeBase64(zpl, dataStart, dataEnd, data);
+        } else {
+            decodeHex(zpl, dataStart, dataEnd, bytesPerRow, data);
+        }
+
+        return PackedBitmap.wrap(data, bytesPerRow * 8, binaryByteCount / bytesPerRow);
+    }
+
+    /**
+     * Tells whether the first graphic field of the ZPL code prints the image exactly as
+     * {@link ZPLConversion#convertBitmap(BufferedImage, ZplOptions)} would with the given options.
+     *
+     * @param zpl        The ZPL code to verify.
+     * @param image      The image the ZPL code was generated from.
+     * @param zplOptions The options used to generate it.
+     * @return Whether the graphic field matches the image.
+     */
+    public static boolean matches(String zpl, BufferedImage image, ZplOptions zplOptions) {
+        if (image == null) {
+            throw new IllegalArgumentException("image cannot be null");
+        }
+        if (zplOptions == null) {
+            zplOptions = ZplOptions.DEFAULT();
+        }
+
+        PackedBitmap expected = PackedBitmap.wrap(packImage(image, zplOptions), image.getWidth(), image.getHeight())
+                .transform(zplOptions.getOrientation(), zplOptions.isMirrored());
+
+        return decodeGraphicField(zpl).contentEquals(expected);
+    }
+
+    private static int readParameter(String zpl, int[] position) {
+        int index = position[0];
+        if (index >= zpl.length() || zpl.charAt(index) != ',') {
+            throw new IllegalArgumentException("Malformed graphic field header at index " + index);
+        }
+
+        int value = 0;
+        int digits = 0;
+        for (index++; index < zpl.length() && Character.isDigit(zpl.charAt(index)); index++, digits++) {
+            value = Math.addExact(Math.multiplyExact(value, 10), zpl.charAt(index) - '0');
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Malformed graphic field header at index " + index);
+        }
+
+        position[0] = index;
+        return value;
+    }
+
+    private static void decodeHex(String zpl, int start, int end, int bytesPerRow, byte[] data) {
+        int digitsPerRow = bytesPerRow * 2;
+        int rows = data.length / bytesPerRow;
+        int row = 0;
+        int digit = 0; // Next digit of the current row
+        int count = 0; // Pending ACS repeat count
+
+        for (int i = start; i < end; i++) {
+            char c = zpl.charAt(i);
+
+            if (c >= 'G' && c <= 'Y') {
+                count += c - 'G' + 1;
+                continue;
+            }
+            if (c >= 'g' && c <= 'z') {
+                count += (c - 'g' + 1) * 20;
+                continue;
+            }
+            if (c == '\n' || c == '\r' || c == ' ') {
+                continue;
+            }
+
+            if (row == rows) {
+                throw new IllegalArgumentException(String.format("Graphic field data exceeds %d rows at index %d", rows, i));
+            }
+
+            int rowOffset = row * bytesPerRow;
+            int value = hexValue(c);
+            if (count != 0 && value < 0) {
+                throw new IllegalArgumentException("Repeat count not followed by a hexadecimal digit at index " + i);
+            }
+
+            if (value >= 0 && count == 0 && (digit & 1) == 0 && i + 1 < end && hexValue(zpl.charAt(i + 1)) >= 0) {
+                // Plain pair of digits, the bulk of uncompressed data
+                data[rowOffset + (digit >> 1)] = (byte) ((value << 4) | hexValue(zpl.charAt(++i)));
+                digit += 2;
+            } else if (value >= 0) {
+                int repeat = count == 0 ? 1 : count;
+                if (digit + repeat > digitsPerRow) {
+                    throw new IllegalArgumentException(String.format("Run of %d digits overflows row %d at index %d",
+                            repeat, row, i));
+                }
+                if (value != 0) {
+                    for (int j = 0; j < repeat; j++, digit++) {
+                        data[rowOffset + (digit >> 1)] |= (byte) ((digit & 1) == 0 ? value << 4 : value);
+                    }
+                } else {
+                    digit += repeat; // Already white
+                }
+            } else if (c == ',') {
+                digit = digitsPerRow;
+            } else if (c == '!') {
+                for (; digit < digitsPerRow; digit++) {
+                    data[rowOffset + (digit >> 1)] |= (byte) ((digit & 1) == 0 ? 0xF0 : 0x0F);
+                }
+            } else if (c == ':') {
+                if (row == 0) {
+                    throw new IllegalArgumentException("Graphic field repeats a row before the first one at index " + i);
+                }
+                for (; digit < digitsPerRow; digit++) {
+                    int previous = data[rowOffset - bytesPerRow + (digit >> 1)];
+                    data[rowOffset + (digit >> 1)] |= (byte) (previous & ((digit & 1) == 0 ? 0xF0 : 0x0F));
+                }
+            } else {
+                throw new IllegalArgumentException(String.format("Unexpected character '%c' in graphic field at index %d", c, i));
+            }
+            count = 0;
+
+            if (digit == digitsPerRow) {
+                row++;
+                digit = 0;
+            }
+        }
+
+        if (count != 0 || digit != 0 || row != rows) {
+            throw new IllegalArgumentException(String.format("Graphic field data ends at row %d of %d", row, rows));
+        }
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static void decodeBase64(String zpl, int start, int end, byte[] data) {
+        boolean compressed = zpl.charAt(start + 1) == 'Z';
+        int payloadStart = start + 5;
+        int payloadEnd = zpl.indexOf(':', payloadStart);
+
+        if (payloadEnd < 0 || payloadEnd > end || end - payloadEnd - 1 != 4) {
+            throw new IllegalArgumentException("Missing checksum after the graphic field data");
+        }
+
+        int crc = 0;
+        for (int i = payloadStart; i < payloadEnd; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >>> 8) ^ zpl.charAt(i)) & 0xFF]) & 0xFFFF;
+        }
+        int expected = Integer.parseInt(zpl.substring(payloadEnd + 1, end), 16);
+        if (crc != expected) {
+            throw new IllegalArgumentException(String.format("Graphic field checksum mismatch: expected %04X, computed %04X",
+                    expected, crc));
+        }
+
+        byte[] decoded = Base64.getDecoder().decode(zpl.substring(payloadStart, payloadEnd));
+        if (!compressed) {
+            if (decoded.length != data.length) {
+                throw new IllegalArgumentException(String.format("Graphic field holds %d bytes instead of %d",
+                        decoded.length, data.length));
+            }
+            System.arraycopy(decoded, 0, data, 0, data.length);
+            return;
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(decoded);
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != data.length || !inflater.finished()) {
+                throw new IllegalArgumentException(String.format("Graphic field inflates to %s bytes instead of %d",
+                        inflater.finished() ? String.valueOf(length) : "more than " + length, data.length));
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt Z64 graphic field", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -11,6 +11,11 @@ public final class ZplOptions {
     private final short labelShift;
     private final long originalDpi;
     private final long targetDpi;
+    private final PdfRenderingKind pdfRenderingKind;
+    private final Orientation orientation;
+    private final boolean mirrored;
+    private final long maxPixels;
+    private final boolean parallelPacking;
 
     // Constructor with all fields
     public ZplOptions(
@@ -35,6 +40,11 @@ public final class ZplOptions {
         this.labelShift = labelShift;
         this.originalDpi = originalDpi;
         this.targetDpi = targetDpi;
+        this.pdfRenderingKind = PdfRenderingKind.RASTER;
+        this.orientation = Orientation.NORMAL;
+        this.mirrored = false;
+        this.maxPixels = Long.MAX_VALUE;
+        this.parallelPacking = false;
     }
 
     // Default constructor with default values
@@ -64,6 +74,11 @@ public final class ZplOptions {
         this.labelShift = builder.labelShift;
         this.originalDpi = builder.originalDpi;
         this.targetDpi = builder.targetDpi;
+        this.pdfRenderingKind = builder.pdfRenderingKind;
+        this.orientation = builder.orientation;
+        this.mirrored = builder.mirrored;
+        this.maxPixels = builder.maxPixels;
+        this.parallelPacking = builder.parallelPacking;
     }
 
     public static ZplOptions DEFAULT() {
@@ -115,25 +130,52 @@ public final class ZplOptions {
         return targetDpi;
     }
 
+    public PdfRenderingKind getPdfRenderingKind() {
+        return pdfRenderingKind;
+    }
+
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    public boolean isMirrored() {
+        return mirrored;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public boolean isParallelPacking() {
+        return parallelPacking;
+    }
+
     public Builder toBuilder() {
         return new Builder()
                 .setEncodingKind(encodingKind)
                 .setGraphicFieldOnly(graphicFieldOnly)
                 .setLabelTop(labelTop)
                 .setLabelShift(labelShift)
+                .setOriginalDpi(originalDpi)
                 .setTargetDpi(targetDpi)
                 .setDitheringKind(ditheringKind)
                 .setPrintQuantity(printQuantity)
                 .setThreshold(threshold)
-                .setSetLabelLength(setLabelLength);
+                .setSetLabelLength(setLabelLength)
+                .setPdfRenderingKind(pdfRenderingKind)
+                .setOrientation(orientation)
+                .setMirrored(mirrored)
+                .setMaxPixels(maxPixels)
+                .setParallelPacking(parallelPacking);
     }
 
     // Optional: Override toString, equals, and hashCode if needed
     @Override
     public String toString() {
         return String.format(
-                "ZplOptions[encodingKind=%s, graphicFieldOnly=%b, setLabelLength=%b, threshold=%d, ditheringKind=%s, printQuantity=%d, labelTop=%d, labelShift=%d]",
-                encodingKind, graphicFieldOnly, setLabelLength, threshold, ditheringKind, printQuantity, labelTop, labelShift
+                "ZplOptions[encodingKind=%s, graphicFieldOnly=%b, setLabelLength=%b, threshold=%d, ditheringKind=%s, printQuantity=%d, labelTop=%d, labelShift=%d, pdfRenderingKind=%s, orientation=%s, mirrored=%b, maxPixels=%d, parallelPacking=%b]",
+                encodingKind, graphicFieldOnly, setLabelLength, threshold, ditheringKind, printQuantity, labelTop, labelShift,
+                pdfRenderingKind, orientation, mirrored, maxPixels, parallelPacking
         );
     }
 
@@ -148,9 +190,43 @@ public final class ZplOptions {
         NONE,
         FLOYD_STEINBERG,
         ATKINSON,
+        /**
+         * Ordered dithering with a 4x4 Bayer matrix, the threshold shifts the matrix from its default of 128.
+         * Every pixel is compared with its own tiled threshold, so it can be packed by bands in parallel,
+         * see {@link Builder#setParallelPacking(boolean)}.
+         */
+        ORDERED_BAYER_4X4,
+        /**
+         * Same as {@link #ORDERED_BAYER_4X4} with an 8x8 matrix, 64 gray levels instead of 16.
+         */
+        ORDERED_BAYER_8X8,
         // Add other dithering algorithms as needed
     }
 
+    public enum PdfRenderingKind {
+        /**
+         * The whole page is rasterized into a single graphic field.
+         */
+        RASTER,
+        /**
+         * Upright text drawn with the standard PDF fonts and Code 128 barcode font runs are emitted as
+         * native ZPL fields, only the remaining graphics are rasterized. Runs partly clipped or painted
+         * over later in the page are rasterized too. Mirrored or rotated labels are always rasterized
+         * as with {@link #RASTER}.
+         */
+        HYBRID
+    }
+
+    /**
+     * Clockwise rotation of the bitmap in the graphic field, applied after mirroring it if set.
+     */
+    public enum Orientation {
+        NORMAL,
+        ROTATED_90,
+        ROTATED_180,
+        ROTATED_270
+    }
+
     // Builder class
     public static class Builder {
         // Default values
@@ -164,6 +240,11 @@ public final class ZplOptions {
         private short labelShift = 0;
         private long originalDpi = 300;
         private long targetDpi = 300;
+        private PdfRenderingKind pdfRenderingKind = PdfRenderingKind.RASTER;
+        private Orientation orientation = Orientation.NORMAL;
+        private boolean mirrored = false;
+        private long maxPixels = Long.MAX_VALUE;
+        private boolean parallelPacking = false;
 
         // Setters for all fields (return the builder for method chaining)
         public Builder setEncodingKind(BitmapEncodingKind encodingKind) {
@@ -181,6 +262,9 @@ public final class ZplOptions {
             return this;
         }
 
+        /**
+         * Gray level, {@code (red + green + blue) / 3}, under which a pixel prints black. 128 by default.
+         */
         public Builder setThreshold(int threshold) {
             this.threshold = threshold;
             return this;
@@ -216,6 +300,45 @@ public final class ZplOptions {
             return this;
         }
 
+        public Builder setPdfRenderingKind(PdfRenderingKind pdfRenderingKind) {
+            this.pdfRenderingKind = pdfRenderingKind;
+            return this;
+        }
+
+        public Builder setOrientation(Orientation orientation) {
+            this.orientation = orientation;
+            return this;
+        }
+
+        /**
+         * Mirrors the bitmap left to right, before rotating it.
+         */
+        public Builder setMirrored(boolean mirrored) {
+            this.mirrored = mirrored;
+            return this;
+        }
+
+        /**
+         * Largest label, in pixels, that the PDF conversions render and the large image conversions
+         * decode. Larger ones are rejected with a {@link LabelTooLargeException} before any pixel is
+         * allocated. Unlimited by default.
+         */
+        public Builder setMaxPixels(long maxPixels) {
+            this.maxPixels = maxPixels;
+            return this;
+        }
+
+        /**
+         * Packs large images, without dithering or with ordered dithering, by bands on the common
+         * {@link java.util.concurrent.ForkJoinPool}. It speeds up a single conversion on an otherwise
+         * idle machine, but competes with the other conversions when they run concurrently, so it is
+         * off by default and always off in a {@link ZplConverterPool}.
+         */
+        public Builder setParallelPacking(boolean parallelPacking) {
+            this.parallelPacking = parallelPacking;
+            return this;
+        }
+
         // Build method to create the ZplOptions object
         public ZplOptions build() {
             return new ZplOptions(this);
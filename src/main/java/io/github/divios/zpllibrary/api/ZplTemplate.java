@@ -0,0 +1,197 @@
+package io.github.divios.zpllibrary.api;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static io.github.divios.zpllibrary.api.ConversionUtils.*;
+import static io.github.divios.zpllibrary.api.Utils.checkState;
+import static io.github.divios.zpllibrary.api.Utils.isNotBlank;
+
+/**
+ * Label template stored on the printer as a graphic, so that every label rendered from it only
+ * needs to send the regions that differ from the template.
+ * <p>
+ * The template is kept as a packed 1-bit reference bitmap. Each label is packed the same way and
+ * diffed against the reference row by row; contiguous changed rows are grouped into bands and
+ * every band is sent as a reversed ({@code ^FR}) graphic field holding the XOR of both bitmaps
+ * over the changed columns. Printing a reversed field flips the pixels under its black dots, so
+ * the stored base graphic plus the bands reproduces the label exactly, including pixels that
+ * turned from black to white.
+ * <p>
+ * Mirroring and rotation set in the options apply to the stored template and the bands alike.
+ */
+public final class ZplTemplate {
+
+    // Unchanged rows between two changed ones that are still merged into the same band,
+    // cheaper than the header of a new field.
+    private static final int BAND_MERGE_GAP = 8;
+
+    private final String graphicName;
+    private final ZplOptions zplOptions;
+    private final int width;
+    private final int height;
+    private final int bytesPerRow;
+    private final int rows;
+    private final byte[] reference;
+
+    private ZplTemplate(String graphicName, ZplOptions zplOptions, int width, int height, PackedBitmap reference) {
+        this.graphicName = graphicName;
+        this.zplOptions = zplOptions;
+        this.width = width;
+        this.height = height;
+        this.bytesPerRow = reference.getBytesPerRow();
+        this.rows = reference.getHeight();
+        this.reference = toByteArray(reference);
+    }
+
+    /**
+     * Creates a template from its rendered image.
+     *
+     * @param graphicName Printer object name the template is stored under, e.g. {@code R:LABEL.GRF}.
+     * @param template    The rendered template.
+     * @param zplOptions  Options used to encode the template and every delta.
+     * @return The template.
+     */
+    public static ZplTemplate of(String graphicName, BufferedImage template, ZplOptions zplOptions) {
+        checkState(isNotBlank(graphicName), "Graphic name cannot be null or empty");
+        checkState(graphicName.indexOf(':') == 1 && graphicName.toUpperCase().endsWith(".GRF"),
+                "Graphic name must look like d:NAME.GRF: %s", graphicName);
+        if (template == null) {
+            throw new IllegalArgumentException("template cannot be null");
+        }
+
+        if (zplOptions == null) {
+            zplOptions = ZplOptions.DEFAULT();
+        }
+
+        return new ZplTemplate(graphicName.toUpperCase(), zplOptions, template.getWidth(), template.getHeight(),
+                pack(template, zplOptions));
+    }
+
+    // Packs the image as the printer will print it, mirrored and rotated as set in the options
+    private static PackedBitmap pack(BufferedImage image, ZplOptions zplOptions) {
+        return PackedBitmap.wrap(packImage(image, zplOptions), image.getWidth(), image.getHeight())
+                .transform(zplOptions.getOrientation(), zplOptions.isMirrored());
+    }
+
+    private static byte[] toByteArray(PackedBitmap bitmap) {
+        byte[] data = new byte[bitmap.getBytesPerRow() * bitmap.getHeight()];
+        bitmap.getRows(0, data, bitmap.getHeight());
+        return data;
+    }
+
+    public String getGraphicName() {
+        return graphicName;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Builds the {@code ~DG} command that stores the template on the printer. It must be sent once
+     * before any label produced by {@link #convertDelta(BufferedImage)}.
+     * <p>
+     * {@code ~DG} only accepts hexadecimal data, so base64 encoding kinds fall back to compressed
+     * hexadecimal.
+     *
+     * @return The download graphic command.
+     */
+    public String getStoreCommand() {
+        String bitmapAsHex = convertBytesToHex(reference, 0, bytesPerRow, rows);
+        String payload = zplOptions.getEncodingKind() == ZplOptions.BitmapEncodingKind.HEXADECIMAL
+                ? bitmapAsHex
+                : compressHex(bitmapAsHex, bytesPerRow);
+
+        return String.format("~DG%s,%d,%d,%s", graphicName, reference.length, bytesPerRow, payload);
+    }
+
+    /**
+     * Converts a label rendered from this template, sending only the bands that differ from it.
+     *
+     * @param label The rendered label, with the same size as the template.
+     * @return The ZPL code recalling the stored template and patching the changed bands.
+     */
+    public String convertDelta(BufferedImage label) {
+        if (label == null) {
+            throw new IllegalArgumentException("label cannot be null");
+        }
+        if (label.getWidth() != width || label.getHeight() != height) {
+            throw new IllegalArgumentException(String.format("Label size %dx%d does not match template size %dx%d",
+                    label.getWidth(), label.getHeight(), width, height));
+        }
+
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            byte[] current = toByteArray(pack(label, zplOptions));
+
+            StringBuilder zplBuilder = new StringBuilder();
+            zplBuilder.append("^XA^FO0,0^XG").append(graphicName).append(",1,1^FS");
+
+            int bandStart = -1;
+            int bandEnd = -1;
+            int minColumn = bytesPerRow;
+            int maxColumn = -1;
+
+            for (int y = 0; y < rows; y++) {
+                int rowOffset = y * bytesPerRow;
+                int first = Arrays.mismatch(reference, rowOffset, rowOffset + bytesPerRow,
+                        current, rowOffset, rowOffset + bytesPerRow);
+                if (first < 0) {
+                    continue;
+                }
+
+                if (bandStart >= 0 && y - bandEnd > BAND_MERGE_GAP) {
+                    appendBand(converter, zplBuilder, current, bandStart, bandEnd, minColumn, maxColumn);
+                    bandStart = -1;
+                }
+                if (bandStart < 0) {
+                    bandStart = y;
+                    minColumn = bytesPerRow;
+                    maxColumn = -1;
+                }
+
+                int last = bytesPerRow - 1;
+                while (reference[rowOffset + last] == current[rowOffset + last]) {
+                    last--;
+                }
+
+                bandEnd = y;
+                minColumn = Math.min(minColumn, first);
+                maxColumn = Math.max(maxColumn, last);
+            }
+
+            if (bandStart >= 0) {
+                appendBand(converter, zplBuilder, current, bandStart, bandEnd, minColumn, maxColumn);
+            }
+
+            return zplBuilder.append("^XZ").toString();
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to convert bitmap delta to ZPL", e);
+        }
+    }
+
+    private void appendBand(ZplConverter converter, StringBuilder zplBuilder, byte[] current, int firstRow, int lastRow,
+                            int firstColumn, int lastColumn) {
+        int bandBytesPerRow = lastColumn - firstColumn + 1;
+        int bandRows = lastRow - firstRow + 1;
+        byte[] band = new byte[bandRows * bandBytesPerRow];
+
+        for (int y = 0; y < bandRows; y++) {
+            int source = (firstRow + y) * bytesPerRow + firstColumn;
+            int target = y * bandBytesPerRow;
+            for (int i = 0; i < bandBytesPerRow; i++) {
+                band[target + i] = (byte) (reference[source + i] ^ current[source + i]);
+            }
+        }
+
+        zplBuilder.append("^FO").append(firstColumn * 8).append(',').append(firstRow).append("^FR");
+        converter.appendGraphicField(zplBuilder, PackedBitmap.wrap(band, bandBytesPerRow * 8, bandRows));
+        zplBuilder.append("^FS");
+    }
+
+}
@@ -0,0 +1,359 @@
+package io.github.divios.zpllibrary.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.github.divios.zpllibrary.api.LabelTooLargeException;
+import io.github.divios.zpllibrary.api.PackedBitmap;
+import io.github.divios.zpllibrary.api.ZPLConversion;
+import io.github.divios.zpllibrary.api.ZplConverter;
+import io.github.divios.zpllibrary.api.ZplConverterPool;
+import io.github.divios.zpllibrary.api.ZplOptions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles {@code POST /convert}: streams the uploaded PDF, PNG or JPEG into the conversion pipeline
+ * and streams the ZPL code back with chunked encoding.
+ */
+final class ConversionHandler implements HttpHandler {
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private enum FileKind {
+        PDF,
+        IMAGE
+    }
+
+    private final ZplOptions zplOptions;
+    private final ZplConverterPool converterPool;
+    private final Semaphore permits;
+    private final long queueTimeoutMillis;
+    private final long maxRequestBytes;
+    private final ServerMetrics metrics;
+
+    ConversionHandler(ZplOptions zplOptions, ZplConverterPool converterPool, Semaphore permits, long queueTimeoutMillis,
+                      long maxRequestBytes, ServerMetrics metrics) {
+        this.zplOptions = zplOptions;
+        this.converterPool = converterPool;
+        this.permits = permits;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.maxRequestBytes = maxRequestBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+
+            metrics.requestReceived();
+            if (!acquirePermit()) {
+                metrics.requestRejected();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Too many conversions in progress");
+                return;
+            }
+
+            long start = System.nanoTime();
+            metrics.conversionStarted();
+            try {
+                convert(exchange);
+            } finally {
+                metrics.conversionFinished();
+                metrics.record(ServerMetrics.Stage.REQUEST, System.nanoTime() - start);
+                permits.release();
+            }
+
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean acquirePermit() {
+        try {
+            return permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void convert(HttpExchange exchange) throws IOException {
+        ZplOptions options;
+        try {
+            options = parseOptions(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            metrics.requestFailed();
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        CountingInputStream body = new CountingInputStream(exchange.getRequestBody(), maxRequestBytes);
+        InputStream in = new BufferedInputStream(body);
+        FileKind fileKind = detectFileKind(exchange.getRequestHeaders().getFirst("Content-Type"), in);
+        if (fileKind == null) {
+            metrics.requestFailed();
+            sendError(exchange, 415, "Expected a PDF, PNG or JPEG file");
+            return;
+        }
+
+        // Native fields of hybrid PDFs cannot be streamed, the whole label is built first
+        boolean hybrid = fileKind == FileKind.PDF && options.getPdfRenderingKind() == ZplOptions.PdfRenderingKind.HYBRID;
+        PackedBitmap bitmap = null;
+        String zpl = null;
+
+        long start = System.nanoTime();
+        try {
+            if (hybrid) {
+                zpl = ZPLConversion.convertPdf(in, options);
+            } else if (fileKind == FileKind.PDF) {
+                bitmap = ZPLConversion.renderPdfToPackedBitmap(in, options);
+            } else {
+                bitmap = ZPLConversion.readPackedBitmap(in, options);
+            }
+        } catch (RuntimeException e) {
+            metrics.requestFailed();
+            if (body.isLimitExceeded()) {
+                sendError(exchange, 413, "Request body exceeds " + maxRequestBytes + " bytes");
+            } else if (e instanceof LabelTooLargeException) {
+                sendError(exchange, 413, e.getMessage());
+            } else {
+                sendError(exchange, 400, "Failed to convert " + fileKind.name().toLowerCase(Locale.ROOT) + ": " + rootMessage(e));
+            }
+            return;
+        } finally {
+            metrics.bytesReceived(body.getCount());
+            metrics.record(ServerMetrics.Stage.RASTERIZE, System.nanoTime() - start);
+        }
+
+        start = System.nanoTime();
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0); // Chunked
+
+        CountingOutputStream responseBody = new CountingOutputStream(exchange.getResponseBody());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(responseBody, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            if (hybrid) {
+                writer.write(zpl);
+            } else {
+                encode(bitmap, options, writer);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Too late for an error status, the client sees the chunked body cut short
+            metrics.requestFailed();
+            throw e;
+        } finally {
+            metrics.bytesSent(responseBody.getCount());
+            metrics.record(ServerMetrics.Stage.ENCODE, System.nanoTime() - start);
+        }
+    }
+
+    private void encode(PackedBitmap bitmap, ZplOptions options, Writer writer) throws IOException {
+        // Pooled converters only fit requests using the server options
+        if (options == zplOptions) {
+            ZplConverter converter = converterPool.borrow();
+            try {
+                converter.convert(bitmap, writer);
+            } finally {
+                converterPool.release(converter);
+            }
+        } else {
+            try (ZplConverter converter = new ZplConverter(options)) {
+                converter.convert(bitmap, writer);
+            }
+        }
+    }
+
+    /**
+     * Overrides the server options with the query parameters of the request.
+     */
+    private ZplOptions parseOptions(String query) {
+        if (query == null || query.isEmpty()) {
+            return zplOptions;
+        }
+
+        ZplOptions.Builder builder = zplOptions.toBuilder();
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+
+            int separator = parameter.indexOf('=');
+            String name = URLDecoder.decode(separator < 0 ? parameter : parameter.substring(0, separator), StandardCharsets.UTF_8);
+            String value = separator < 0 ? "" : URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+
+            switch (name) {
+                case "encoding":
+                    builder.setEncodingKind(ZplOptions.BitmapEncodingKind.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "threshold":
+                    builder.setThreshold(Integer.parseInt(value));
+                    break;
+                case "dithering":
+                    builder.setDitheringKind(ZplOptions.DitheringKind.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "dpi":
+                    builder.setTargetDpi(Long.parseLong(value));
+                    break;
+                case "orientation":
+                    builder.setOrientation(ZplOptions.Orientation.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "mirrored":
+                    builder.setMirrored(Boolean.parseBoolean(value));
+                    break;
+                case "pdf":
+                    builder.setPdfRenderingKind(ZplOptions.PdfRenderingKind.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+
+        return builder.build();
+    }
+
+    // A declared PDF, PNG or JPEG content type wins, otherwise the magic bytes tell
+    private static FileKind detectFileKind(String contentType, InputStream in) throws IOException {
+        String mediaType = contentType == null ? "" : contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+        switch (mediaType) {
+            case "application/pdf":
+                return FileKind.PDF;
+            case "image/png":
+            case "image/jpeg":
+            case "image/jpg":
+                return FileKind.IMAGE;
+            default:
+                break; // Generic types like application/octet-stream, or clients sending form defaults
+        }
+
+        byte[] header = new byte[8];
+        in.mark(header.length);
+        int length = in.readNBytes(header, 0, header.length);
+        in.reset();
+
+        if (startsWith(header, length, 0x25, 0x50, 0x44, 0x46)) { // %PDF
+            return FileKind.PDF;
+        } else if (startsWith(header, length, 0xFF, 0xD8, 0xFF)
+                || startsWith(header, length, 0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A)) { // JPEG, PNG
+            return FileKind.IMAGE;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null && e.getCause() != e) {
+            e = e.getCause();
+        }
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Counts the uploaded bytes and fails once there are more than allowed
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+        private boolean limitExceeded;
+
+        private CountingInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws IOException {
+            count += read;
+            if (count > limit) {
+                limitExceeded = true;
+                throw new IOException("Request body exceeds " + limit + " bytes");
+            }
+        }
+
+        private long getCount() {
+            return count;
+        }
+
+        private boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+
+}
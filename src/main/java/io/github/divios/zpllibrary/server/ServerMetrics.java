@@ -0,0 +1,161 @@
+package io.github.divios.zpllibrary.server;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and per-stage timings of a {@link ZplServer}, safe to read while it serves requests.
+ */
+public final class ServerMetrics {
+
+    public enum Stage {
+        /**
+         * Reading the uploaded file and decoding or rendering it into a packed bitmap. The upload is
+         * streamed into the decoder, so this includes the time spent waiting for the client.
+         */
+        RASTERIZE,
+        /**
+         * Encoding the bitmap and streaming the ZPL code back to the client.
+         */
+        ENCODE,
+        /**
+         * The whole conversion, from the moment the request is accepted.
+         */
+        REQUEST
+    }
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final Map<Stage, StageTimer> stages = new EnumMap<>(Stage.class);
+
+    ServerMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageTimer());
+        }
+    }
+
+    /**
+     * Conversion requests received, including the rejected and failed ones.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Requests turned away with 503 because every conversion slot was busy.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Requests that could not be converted, for a client or a server error.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getCount(Stage stage) {
+        return stages.get(stage).count.sum();
+    }
+
+    public long getTotalNanos(Stage stage) {
+        return stages.get(stage).totalNanos.sum();
+    }
+
+    public long getMaxNanos(Stage stage) {
+        return stages.get(stage).maxNanos.get();
+    }
+
+    void requestReceived() {
+        requests.increment();
+    }
+
+    void requestRejected() {
+        rejected.increment();
+    }
+
+    void requestFailed() {
+        failed.increment();
+    }
+
+    void conversionStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void conversionFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    void bytesReceived(long count) {
+        bytesReceived.add(count);
+    }
+
+    void bytesSent(long count) {
+        bytesSent.add(count);
+    }
+
+    void record(Stage stage, long nanos) {
+        StageTimer timer = stages.get(stage);
+        timer.count.increment();
+        timer.totalNanos.add(nanos);
+        timer.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Formats the metrics in the Prometheus text exposition format, as served on {@code /metrics}.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        appendMetric(text, "zpl_requests_total", null, getRequests());
+        appendMetric(text, "zpl_requests_rejected_total", null, getRejected());
+        appendMetric(text, "zpl_requests_failed_total", null, getFailed());
+        appendMetric(text, "zpl_conversions_in_flight", null, getInFlight());
+        appendMetric(text, "zpl_received_bytes_total", null, getBytesReceived());
+        appendMetric(text, "zpl_sent_bytes_total", null, getBytesSent());
+
+        for (Stage stage : Stage.values()) {
+            String label = stage.name().toLowerCase(Locale.ROOT);
+            appendMetric(text, "zpl_stage_count", label, getCount(stage));
+            appendMetric(text, "zpl_stage_seconds_total", label, getTotalNanos(stage) / 1e9);
+            appendMetric(text, "zpl_stage_seconds_max", label, getMaxNanos(stage) / 1e9);
+        }
+
+        return text.toString();
+    }
+
+    private static void appendMetric(StringBuilder text, String name, String stage, Object value) {
+        text.append(name);
+        if (stage != null) {
+            text.append("{stage=\"").append(stage).append("\"}");
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static final class StageTimer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+}
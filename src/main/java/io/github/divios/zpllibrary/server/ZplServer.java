@@ -0,0 +1,223 @@
+package io.github.divios.zpllibrary.server;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.divios.zpllibrary.ConversionFacade;
+import io.github.divios.zpllibrary.api.ZplConverterPool;
+import io.github.divios.zpllibrary.api.ZplOptions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lightweight HTTP conversion service on the JDK's {@code com.sun.net.httpserver}.
+ * <ul>
+ *     <li>{@code POST /convert} takes a PDF, PNG or JPEG body, told apart by its content type or its
+ *     first bytes, and answers with the ZPL code. The upload is streamed into the decoder and the
+ *     ZPL code is streamed back with chunked encoding as it is encoded. The query parameters
+ *     {@code encoding}, {@code threshold}, {@code dithering}, {@code dpi}, {@code orientation},
+ *     {@code mirrored} and {@code pdf} override the server options, e.g. {@code /convert?dpi=203&orientation=rotated_90}.</li>
+ *     <li>{@code GET /metrics} serves the {@link ServerMetrics} in the Prometheus text format.</li>
+ * </ul>
+ * At most {@code maxConcurrentConversions} conversions run at once, the requests that do not get a
+ * slot within the queue timeout are answered with 503. Uploads larger than {@code maxRequestBytes}, or
+ * declaring a label larger than {@code maxPixels}, are answered with 413. PDF uploads are buffered in
+ * a temporary file past their first 16MB.
+ */
+public final class ZplServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ZplConverterPool converterPool;
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    private ZplServer(Builder builder) {
+        InetSocketAddress address = builder.host == null
+                ? new InetSocketAddress(builder.port)
+                : new InetSocketAddress(builder.host, builder.port);
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bind conversion server to " + address, e);
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "zpl-server-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Query parameters cannot override the limit, every request inherits it. Each conversion stays on
+        // its own thread so that maxConcurrentConversions bounds the CPU in use
+        ZplOptions zplOptions = builder.zplOptions.toBuilder()
+                .setMaxPixels(builder.maxPixels)
+                .setParallelPacking(false)
+                .build();
+        converterPool = new ZplConverterPool(zplOptions, builder.maxConcurrentConversions);
+
+        server.setExecutor(executor);
+        server.createContext("/convert", new ConversionHandler(zplOptions, converterPool,
+                new Semaphore(builder.maxConcurrentConversions), builder.queueTimeout.toMillis(),
+                builder.maxRequestBytes, metrics));
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "GET");
+                    ConversionHandler.sendError(exchange, 405, "Only GET is supported");
+                    return;
+                }
+
+                byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts serving requests in the background.
+     *
+     * @return This server.
+     */
+    public ZplServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * The port the server listens on, useful when it was built with port 0.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops accepting requests, aborting the conversions still in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        converterPool.close();
+    }
+
+    /**
+     * Runs a standalone server with the default options, on the port given as first argument
+     * (8080 by default).
+     */
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+
+        ConversionFacade.warmUp();
+        ZplServer zplServer = builder().setPort(port).build().start();
+        System.out.println("Listening on port " + zplServer.getPort());
+    }
+
+    public static class Builder {
+        private String host = null;
+        private int port = 8080;
+        private ZplOptions zplOptions = ZplOptions.DEFAULT();
+        private int maxConcurrentConversions = Runtime.getRuntime().availableProcessors();
+        private Duration queueTimeout = Duration.ZERO;
+        private long maxRequestBytes = 64L << 20;
+        private long maxPixels = 1L << 28;
+
+        /**
+         * Address to bind to, all of them by default.
+         */
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Port to listen on, 8080 by default or any free one if 0.
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Options of the conversions that do not override them with query parameters.
+         */
+        public Builder setZplOptions(ZplOptions zplOptions) {
+            this.zplOptions = zplOptions;
+            return this;
+        }
+
+        /**
+         * Conversions allowed to run at once, the available processors by default.
+         */
+        public Builder setMaxConcurrentConversions(int maxConcurrentConversions) {
+            this.maxConcurrentConversions = maxConcurrentConversions;
+            return this;
+        }
+
+        /**
+         * Time a request waits for a free conversion slot before it is rejected, none by default.
+         */
+        public Builder setQueueTimeout(Duration queueTimeout) {
+            this.queueTimeout = queueTimeout;
+            return this;
+        }
+
+        /**
+         * Largest upload accepted, 64MB by default.
+         */
+        public Builder setMaxRequestBytes(long maxRequestBytes) {
+            this.maxRequestBytes = maxRequestBytes;
+            return this;
+        }
+
+        /**
+         * Largest label accepted, in pixels, checked from the image header or the PDF page size before
+         * it is decoded. 2^28 pixels by default, 32MB once packed.
+         */
+        public Builder setMaxPixels(long maxPixels) {
+            this.maxPixels = maxPixels;
+            return this;
+        }
+
+        public ZplServer build() {
+            if (maxConcurrentConversions <= 0) {
+                throw new IllegalArgumentException("maxConcurrentConversions must be positive: " + maxConcurrentConversions);
+            }
+            if (maxRequestBytes <= 0) {
+                throw new IllegalArgumentException("maxRequestBytes must be positive: " + maxRequestBytes);
+            }
+            if (maxPixels <= 0) {
+                throw new IllegalArgumentException("maxPixels must be positive: " + maxPixels);
+            }
+            if (queueTimeout == null || queueTimeout.isNegative()) {
+                throw new IllegalArgumentException("queueTimeout cannot be null or negative: " + queueTimeout);
+            }
+            if (zplOptions == null) {
+                zplOptions = ZplOptions.DEFAULT();
+            }
+
+            return new ZplServer(this);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.github.divios.zpllibrary.api;
+
+/**
+ * Entry point of the row packing loop for runtimes that may provide the Vector API. It is only
+ * used when the {@code jdk.incubator.vector} module is resolved (e.g. with
+ * {@code --add-modules jdk.incubator.vector}), the preferred vector shape packs whole bytes and
+ * the {@code zpllibrary.vectorize} system property is {@code true}. It is opt-in because the gain
+ * depends on the runtime and the CPU, e.g. whether {@link jdk.incubator.vector.VectorMask#toLong()}
+ * compiles into a single instruction. Measure it on the target machines with
+ * {@code RowPackerBenchmark} (the {@code jmh} profile) before enabling it.
+ */
+final class RowPacker {
+
+    private static final boolean VECTORIZED = Boolean.getBoolean("zpllibrary.vectorize")
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorRowPacker.isSupported();
+
+    private RowPacker() {
+        // Utility class
+    }
+
+
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * Packs a whole row, see {@link ScalarRowPacker#pack(int[], int, int, int, byte[], int)}.
+     */
+    static void pack(int[] argb, int width, int threshold, byte[] packed, int offset) {
+        if (VECTORIZED) {
+            VectorRowPacker.pack(argb, width, threshold, packed, offset);
+        } else {
+            ScalarRowPacker.pack(argb, 0, width, threshold, packed, offset);
+        }
+    }
+
+    /**
+     * Packs a whole row with a limit per pixel, see {@link ScalarRowPacker#pack(int[], int, int, int[], byte[], int)}.
+     */
+    static void pack(int[] argb, int width, int[] limits, byte[] packed, int offset) {
+        if (VECTORIZED) {
+            VectorRowPacker.pack(argb, width, limits, packed, offset);
+        } else {
+            ScalarRowPacker.pack(argb, 0, width, limits, packed, offset);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package io.github.divios.zpllibrary.api;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Row packing loop on the Vector API: the grayscale value and the threshold comparison of a whole
+ * vector of pixels are computed at once and the comparison mask becomes the packed bits with
+ * {@link jdk.incubator.vector.VectorMask#toLong()}.
+ */
+final class VectorRowPacker {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private VectorRowPacker() {
+        // Utility class
+    }
+
+    static boolean isSupported() {
+        return SPECIES.length() % 8 == 0;
+    }
+
+    static void pack(int[] argb, int width, int threshold, byte[] packed, int offset) {
+        // (red + green + blue) / 3 < threshold is the same as red + green + blue < 3 * threshold
+        int limit = 3 * Math.max(0, Math.min(threshold, 256));
+        int lanes = SPECIES.length();
+        int vectorWidth = SPECIES.loopBound(width);
+
+        for (int x = 0; x < vectorWidth; x += lanes) {
+            IntVector pixels = IntVector.fromArray(SPECIES, argb, x);
+            IntVector red = pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector green = pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector blue = pixels.and(0xFF);
+
+            // Bit i of the mask is pixel x + i, while the packed rows start with the most significant bit
+            long bits = red.add(green).add(blue).compare(VectorOperators.LT, limit).toLong();
+            for (int i = 0; i < lanes; i += 8) {
+                packed[offset + ((x + i) >> 3)] = (byte) (Integer.reverse((int) (bits >>> i)) >>> 24);
+            }
+        }
+
+        ScalarRowPacker.pack(argb, vectorWidth, width, threshold, packed, offset);
+    }
+
+    static void pack(int[] argb, int width, int[] limits, byte[] packed, int offset) {
+        int lanes = SPECIES.length();
+        int vectorWidth = SPECIES.loopBound(width);
+
+        for (int x = 0; x < vectorWidth; x += lanes) {
+            IntVector pixels = IntVector.fromArray(SPECIES, argb, x);
+            IntVector red = pixels.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector green = pixels.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector blue = pixels.and(0xFF);
+
+            IntVector limit = IntVector.fromArray(SPECIES, limits, x);
+            long bits = red.add(green).add(blue).compare(VectorOperators.LT, limit).toLong();
+            for (int i = 0; i < lanes; i += 8) {
+                packed[offset + ((x + i) >> 3)] = (byte) (Integer.reverse((int) (bits >>> i)) >>> 24);
+            }
+        }
+
+        ScalarRowPacker.pack(argb, vectorWidth, width, limits, packed, offset);
+    }
+
+}
@@ -0,0 +1,152 @@
+package io.github.divios.zpllibrary.api;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.Random;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class PackedBitmapTest {
+
+    // Single pixels, partial bytes and partial 8x8 blocks on either side
+    private static final int[][] SIZES = {{1, 1}, {8, 8}, {13, 7}, {16, 9}, {37, 70}, {101, 45}};
+
+    static Stream<Arguments> transforms() {
+        Stream.Builder<Arguments> transforms = Stream.builder();
+        for (ZplOptions.Orientation orientation : ZplOptions.Orientation.values()) {
+            for (boolean mirrored : new boolean[]{false, true}) {
+                for (int[] size : SIZES) {
+                    transforms.add(Arguments.of(orientation, mirrored, size[0], size[1]));
+                }
+            }
+        }
+        return transforms.build();
+    }
+
+    @ParameterizedTest(name = "{0} mirrored={1} {2}x{3}")
+    @MethodSource("transforms")
+    void transformMovesEveryPixel(ZplOptions.Orientation orientation, boolean mirrored, int width, int height) {
+        PackedBitmap source = random(PackedBitmap.wrap(new byte[((width + 7) / 8) * height], width, height));
+        assertTransformed(source, source.transform(orientation, mirrored), orientation, mirrored);
+    }
+
+    @ParameterizedTest(name = "{0} mirrored={1} {2}x{3}")
+    @MethodSource("transforms")
+    void transformOffHeap(ZplOptions.Orientation orientation, boolean mirrored, int width, int height) {
+        PackedBitmap source = random(PackedBitmap.allocate(width, height));
+        PackedBitmap target = source.transform(orientation, mirrored);
+        assertEquals(!PackedBitmap.isIdentity(orientation, mirrored), target.isDirect() && target != source);
+        assertTransformed(source, target, orientation, mirrored);
+    }
+
+    @ParameterizedTest(name = "{0} mirrored={1} {2}x{3}")
+    @MethodSource("transforms")
+    void converterOrientsIntoReusedBuffers(ZplOptions.Orientation orientation, boolean mirrored, int width, int height) {
+        ZplConverter converter = new ZplConverter(ZplOptions.builder()
+                .setOrientation(orientation)
+                .setMirrored(mirrored)
+                .build());
+
+        // A larger label first, so that the buffers hold stale pixels past the size of this one
+        PackedBitmap large = random(PackedBitmap.wrap(new byte[16 * 120], 120, 120));
+        assertTransformed(large, converter.orient(large), orientation, mirrored);
+
+        PackedBitmap source = random(PackedBitmap.wrap(new byte[((width + 7) / 8) * height], width, height));
+        assertTransformed(source, converter.orient(source), orientation, mirrored);
+    }
+
+    @ParameterizedTest(name = "{0} mirrored={1} {2}x{3}")
+    @MethodSource("transforms")
+    void transformKeepsThePaddingWhite(ZplOptions.Orientation orientation, boolean mirrored, int width, int height) {
+        PackedBitmap source = fill(PackedBitmap.wrap(new byte[((width + 7) / 8) * height], width, height),
+                (x, y) -> true);
+
+        PackedBitmap target = source.transform(orientation, mirrored);
+        byte[] row = new byte[target.getBytesPerRow()];
+        int padding = target.getBytesPerRow() * 8 - target.getWidth();
+        for (int y = 0; y < target.getHeight(); y++) {
+            target.getRow(y, row);
+            assertEquals(0, row[row.length - 1] & ((1 << padding) - 1), "padding bits of row " + y);
+        }
+    }
+
+    @ParameterizedTest(name = "{0} mirrored={1} {2}x{3}")
+    @MethodSource("transforms")
+    void identityReturnsTheSameBitmap(ZplOptions.Orientation orientation, boolean mirrored, int width, int height) {
+        PackedBitmap source = PackedBitmap.wrap(new byte[((width + 7) / 8) * height], width, height);
+        if (PackedBitmap.isIdentity(orientation, mirrored)) {
+            assertSame(source, source.transform(orientation, mirrored));
+        } else {
+            assertNotSame(source, source.transform(orientation, mirrored));
+        }
+    }
+
+    // Per-pixel reference: mirrors left to right, then turns clockwise
+    private static void assertTransformed(PackedBitmap source, PackedBitmap target,
+                                          ZplOptions.Orientation orientation, boolean mirrored) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean quarterTurn = orientation == ZplOptions.Orientation.ROTATED_90
+                || orientation == ZplOptions.Orientation.ROTATED_270;
+        assertEquals(quarterTurn ? height : width, target.getWidth(), "width");
+        assertEquals(quarterTurn ? width : height, target.getHeight(), "height");
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int mirroredX = mirrored ? width - 1 - x : x;
+                int targetX;
+                int targetY;
+                switch (orientation) {
+                    case ROTATED_90:
+                        targetX = height - 1 - y;
+                        targetY = mirroredX;
+                        break;
+                    case ROTATED_180:
+                        targetX = width - 1 - mirroredX;
+                        targetY = height - 1 - y;
+                        break;
+                    case ROTATED_270:
+                        targetX = y;
+                        targetY = width - 1 - mirroredX;
+                        break;
+                    default:
+                        targetX = mirroredX;
+                        targetY = y;
+                        break;
+                }
+
+                if (source.isBlack(x, y) != target.isBlack(targetX, targetY)) {
+                    fail(String.format("Pixel %d,%d of %dx%d %s mirrored=%b moved wrong to %d,%d",
+                            x, y, width, height, orientation, mirrored, targetX, targetY));
+                }
+            }
+        }
+    }
+
+    private static PackedBitmap random(PackedBitmap bitmap) {
+        Random random = new Random(bitmap.getWidth() * 31L + bitmap.getHeight());
+        return fill(bitmap, (x, y) -> random.nextBoolean());
+    }
+
+    // Packs the pixels row by row, leaving the padding bits white
+    private static PackedBitmap fill(PackedBitmap bitmap, BiPredicate<Integer, Integer> black) {
+        byte[] rows = new byte[bitmap.getBytesPerRow() * bitmap.getHeight()];
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                if (black.test(x, y)) {
+                    rows[y * bitmap.getBytesPerRow() + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+        }
+        bitmap.setRows(0, rows, bitmap.getHeight());
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,230 @@
+package io.github.divios.zpllibrary.api;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PngBandReaderTest {
+
+    // Odd sizes, so that the rows end inside a byte and the last band is shorter
+    private static final int WIDTH = 101;
+    private static final int HEIGHT = 45;
+    private static final int BAND_HEIGHT = 8;
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGB_ALPHA = 6;
+
+    private static final ZplOptions[] OPTIONS = {
+            ZplOptions.DEFAULT(),
+            ZplOptions.builder().setThreshold(90).build(),
+            ZplOptions.builder().setDitheringKind(ZplOptions.DitheringKind.ORDERED_BAYER_8X8).build()
+    };
+
+    static Stream<Arguments> supportedImages() {
+        BufferedImage source = source();
+        return Stream.of(
+                Arguments.of("gray 1-bit", GRAY, 1, convert(source, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY))),
+                Arguments.of("gray 2-bit", GRAY, 2, convert(source, indexed(2, true, false))),
+                Arguments.of("gray 4-bit", GRAY, 4, convert(source, indexed(4, true, false))),
+                Arguments.of("gray 8-bit", GRAY, 8, convert(source, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY))),
+                Arguments.of("gray 16-bit", GRAY, 16, convert(source, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY))),
+                Arguments.of("palette 1-bit", PALETTE, 1, convert(source, indexed(1, false, false))),
+                Arguments.of("palette 2-bit", PALETTE, 2, convert(source, indexed(2, false, false))),
+                Arguments.of("palette 4-bit", PALETTE, 4, convert(source, indexed(4, false, false))),
+                Arguments.of("palette 8-bit", PALETTE, 8, convert(source, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED))),
+                Arguments.of("palette 4-bit with alpha", PALETTE, 4, convert(source, indexed(4, false, true))),
+                Arguments.of("gray alpha 8-bit", GRAY_ALPHA, 8, samples(ColorSpace.CS_GRAY, true, DataBuffer.TYPE_BYTE)),
+                Arguments.of("gray alpha 16-bit", GRAY_ALPHA, 16, samples(ColorSpace.CS_GRAY, true, DataBuffer.TYPE_USHORT)),
+                Arguments.of("RGB 8-bit", RGB, 8, convert(source, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB))),
+                Arguments.of("RGB 16-bit", RGB, 16, samples(ColorSpace.CS_sRGB, false, DataBuffer.TYPE_USHORT)),
+                Arguments.of("RGB alpha 8-bit", RGB_ALPHA, 8, source),
+                Arguments.of("RGB alpha 16-bit", RGB_ALPHA, 16, samples(ColorSpace.CS_sRGB, true, DataBuffer.TYPE_USHORT))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("supportedImages")
+    void bandsPackLikeTheWholeImage(String name, int colorType, int bitDepth, BufferedImage image) throws IOException {
+        byte[] png = png(image, false);
+        assertEquals(bitDepth, png[24], "bit depth");
+        assertEquals(colorType, png[25], "colour type");
+
+        for (ZplOptions zplOptions : OPTIONS) {
+            PackedBitmap bitmap = PackedBitmap.allocate(WIDTH, HEIGHT);
+            assertTrue(readBands(png, bitmap, zplOptions), "decoded band by band");
+            assertContentEquals(expected(png, zplOptions), bitmap, zplOptions);
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("unsupportedImages")
+    void leavesUnsupportedImagesToTheReader(String name, byte[] png) throws IOException {
+        for (ZplOptions zplOptions : OPTIONS) {
+            assertFalse(readBands(png, PackedBitmap.allocate(WIDTH, HEIGHT), zplOptions));
+            assertContentEquals(expected(png, zplOptions),
+                    ZPLConversion.readPackedBitmap(new ByteArrayInputStream(png), zplOptions), zplOptions);
+        }
+    }
+
+    static Stream<Arguments> unsupportedImages() throws IOException {
+        BufferedImage rgb = convert(source(), new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB));
+        BufferedImage gray = convert(source(), new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY));
+        return Stream.of(
+                Arguments.of("interlaced", png(rgb, true)),
+                Arguments.of("RGB tRNS", withTransparency(png(rgb, false), new byte[]{0, 0, 0, (byte) 200, 0, 100})),
+                Arguments.of("gray tRNS", withTransparency(png(gray, false), new byte[]{0, (byte) 128}))
+        );
+    }
+
+    private static boolean readBands(byte[] png, PackedBitmap bitmap, ZplOptions zplOptions) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+            ImageReader reader = ImageIO.getImageReaders(stream).next();
+            try {
+                reader.setInput(stream);
+                return PngBandReader.read(reader, stream, bitmap, BAND_HEIGHT, zplOptions);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static PackedBitmap expected(byte[] png, ZplOptions zplOptions) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        return PackedBitmap.wrap(ConversionUtils.packImage(image, zplOptions), image.getWidth(), image.getHeight());
+    }
+
+    private static void assertContentEquals(PackedBitmap expected, PackedBitmap actual, ZplOptions zplOptions) {
+        assertTrue(expected.contentEquals(actual), () -> "Bitmap differs with " + zplOptions);
+    }
+
+    // Gradients with noise and patches of partial transparency
+    private static BufferedImage source() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int gray = (x * 255 / WIDTH + y * 7 + random.nextInt(40)) & 0xFF;
+                int alpha = (x / 13 + y / 7) % 5 == 0 ? random.nextInt(256) : 0xFF;
+                image.setRGB(x, y, (alpha << 24) | (gray << 16) | (((gray * 3) & 0xFF) << 8) | (255 - gray));
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage convert(BufferedImage source, BufferedImage target) {
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+        return target;
+    }
+
+    // Gray palettes are written as gray PNG images, the others as palette ones
+    private static BufferedImage indexed(int bits, boolean gray, boolean alpha) {
+        int size = 1 << bits;
+        byte[] red = new byte[size];
+        byte[] green = new byte[size];
+        byte[] blue = new byte[size];
+        byte[] alphas = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int level = i * 255 / (size - 1);
+            red[i] = (byte) level;
+            green[i] = (byte) (gray ? level : 255 - level);
+            blue[i] = (byte) (gray ? level : level / 3);
+            alphas[i] = (byte) (alpha ? level : 255);
+        }
+
+        IndexColorModel colorModel = alpha
+                ? new IndexColorModel(bits, size, red, green, blue, alphas)
+                : new IndexColorModel(bits, size, red, green, blue);
+        int type = bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY;
+        return new BufferedImage(WIDTH, HEIGHT, type, colorModel);
+    }
+
+    // Images of the colour models Java2D cannot draw into, filled sample by sample
+    private static BufferedImage samples(int colorSpace, boolean alpha, int dataType) {
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(colorSpace), alpha, false,
+                alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, dataType);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(WIDTH, HEIGHT);
+        int max = dataType == DataBuffer.TYPE_USHORT ? 0xFFFF : 0xFF;
+        Random random = new Random(7);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    raster.setSample(x, y, band, (x * 97 + y * 31 + band * 7000 + random.nextInt(3000)) * max / 0xFFFF & max);
+                }
+            }
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    private static byte[] png(BufferedImage image, boolean interlaced) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (interlaced) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    // Inserts a tRNS chunk right after the IHDR chunk
+    private static byte[] withTransparency(byte[] png, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(png, 0, 33);
+
+        byte[] type = {'t', 'R', 'N', 'S'};
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        writeInt(out, data.length);
+        out.write(type, 0, type.length);
+        out.write(data, 0, data.length);
+        writeInt(out, (int) crc.getValue());
+
+        out.write(png, 33, png.length - 33);
+        return out.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write(value >>> shift);
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package io.github.divios.zpllibrary.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZplDecoderTest {
+
+    // Odd widths end the rows inside a byte, and inside a hexadecimal digit for the ones under 4 bits.
+    // Only whole bytes let a black row end in a run of F digits
+    private static final int[] WIDTHS = {1, 3, 7, 8, 9, 33, 101, 813, 816};
+    private static final int HEIGHT = 37;
+
+    private enum Content {
+        WHITE, BLACK, NOISE, STRIPES
+    }
+
+    @ParameterizedTest
+    @EnumSource(ZplOptions.BitmapEncodingKind.class)
+    void staticConversionRoundTrips(ZplOptions.BitmapEncodingKind encodingKind) {
+        ZplOptions zplOptions = ZplOptions.builder().setEncodingKind(encodingKind).build();
+        for (int width : WIDTHS) {
+            for (Content content : Content.values()) {
+                BufferedImage image = image(content, width, HEIGHT);
+                assertTrue(ZplDecoder.matches(ZPLConversion.convertBitmap(image, zplOptions), image, zplOptions),
+                        () -> content + " " + width + "x" + HEIGHT);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ZplOptions.BitmapEncodingKind.class)
+    void reusedConverterRoundTrips(ZplOptions.BitmapEncodingKind encodingKind) throws IOException {
+        for (ZplOptions.Orientation orientation : ZplOptions.Orientation.values()) {
+            ZplOptions zplOptions = ZplOptions.builder()
+                    .setEncodingKind(encodingKind)
+                    .setOrientation(orientation)
+                    .setMirrored(orientation == ZplOptions.Orientation.ROTATED_90)
+                    .build();
+
+            // Widest label first, the narrower ones reuse its larger buffers
+            try (ZplConverter converter = new ZplConverter(zplOptions)) {
+                for (int i = WIDTHS.length - 1; i >= 0; i--) {
+                    int width = WIDTHS[i];
+                    for (Content content : Content.values()) {
+                        BufferedImage image = image(content, width, HEIGHT);
+                        String zpl = converter.convert(image);
+                        assertTrue(ZplDecoder.matches(zpl, image, zplOptions),
+                                () -> content + " " + width + "x" + HEIGHT + " " + orientation);
+
+                        StringBuilder streamed = new StringBuilder();
+                        converter.convert(image, streamed);
+                        assertEquals(zpl, streamed.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ZplOptions.BitmapEncodingKind.class)
+    void largeLabelRoundTrips(ZplOptions.BitmapEncodingKind encodingKind) throws IOException {
+        // Past the size at which the converter hands the ZPL code over to the destination
+        ZplOptions zplOptions = ZplOptions.builder().setEncodingKind(encodingKind).build();
+        BufferedImage image = image(Content.NOISE, 813, 1219);
+
+        StringBuilder streamed = new StringBuilder();
+        try (ZplConverter converter = new ZplConverter(zplOptions)) {
+            converter.convert(image, streamed);
+        }
+        assertTrue(ZplDecoder.matches(streamed.toString(), image, zplOptions));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ZplOptions.BitmapEncodingKind.class)
+    void detectsAChangedPixel(ZplOptions.BitmapEncodingKind encodingKind) {
+        ZplOptions zplOptions = ZplOptions.builder().setEncodingKind(encodingKind).build();
+        for (int width : WIDTHS) {
+            BufferedImage image = image(Content.STRIPES, width, HEIGHT);
+            String zpl = ZPLConversion.convertBitmap(image, zplOptions);
+
+            int x = width - 1;
+            int y = HEIGHT / 2;
+            image.setRGB(x, y, ~image.getRGB(x, y) | 0xFF000000);
+            assertFalse(ZplDecoder.matches(zpl, image, zplOptions), () -> width + "x" + HEIGHT);
+        }
+    }
+
+    @Test
+    void decodedFieldIsAsWideAsItsRows() {
+        BufferedImage image = image(Content.NOISE, 101, HEIGHT);
+        PackedBitmap decoded = ZplDecoder.decodeGraphicField(ZPLConversion.convertBitmap(image, ZplOptions.DEFAULT()));
+        assertEquals(104, decoded.getWidth());
+        assertEquals(HEIGHT, decoded.getHeight());
+    }
+
+    // Noise defeats the compression, stripes give long runs, repeated rows and whole white or black rows
+    private static BufferedImage image(Content content, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean black;
+                switch (content) {
+                    case BLACK:
+                        black = true;
+                        break;
+                    case NOISE:
+                        black = random.nextBoolean();
+                        break;
+                    case STRIPES:
+                        black = (y / 4) % 3 == 1 || (y / 4) % 3 == 2 && x % 23 < 11;
+                        break;
+                    default:
+                        black = false;
+                        break;
+                }
+                image.setRGB(x, y, black ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        return image;
+    }
+
+}